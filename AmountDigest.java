@@ -0,0 +1,240 @@
+import java.util.Arrays;
+
+// Mergeable quantile sketch of amounts in cents, after Dunning's merging
+// t-digest. Values are summarized as centroids (a mean and a count) sorted
+// by mean, and a centroid may only grow as large as the k1 scale function
+// allows at its position in the distribution: those near either end stay
+// small, down to single values, so tail percentiles such as p95 or p99
+// are close to exact, while the middle is summarized more coarsely. Fewer
+// than about COMPRESSION centroids are kept however many values are added.
+//
+// New values collect in a buffer that is sorted and merged into the
+// centroids once full. quantile needs an empty buffer, so readers flush a
+// copy first. Not thread-safe.
+public final class AmountDigest {
+    static final double COMPRESSION = 100;
+    private static final int MAX_BUFFER = 256;
+    // One step of k as an angle of the arcsine below
+    private static final double COS_STEP = Math.cos(2 * Math.PI / COMPRESSION);
+    private static final double SIN_STEP = Math.sin(2 * Math.PI / COMPRESSION);
+
+    private double[] means = new double[0];
+    private long[] counts = new long[0];
+    private int centroids;
+    private long[] buffer = new long[8];
+    private int buffered;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public void add(long cents) {
+        if (buffered == buffer.length) {
+            if (buffer.length < MAX_BUFFER) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else {
+                flush();
+            }
+        }
+        buffer[buffered++] = cents;
+        count++;
+        min = Math.min(min, cents);
+        max = Math.max(max, cents);
+    }
+
+    // Adds other's values; flushes other first
+    public void addAll(AmountDigest other) {
+        if (other.count == 0) {
+            return;
+        }
+        other.flush();
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        merge(other.means, other.counts, other.centroids);
+    }
+
+    // Merges the buffered values into the centroids
+    public void flush() {
+        if (buffered > 0) {
+            double[] sorted = sort(buffer, buffered);
+            buffered = 0;
+            merge(sorted, null, sorted.length);
+        }
+    }
+
+    // The values as doubles in ascending order, by an LSD radix sort over
+    // only the bytes in which they differ: two or three passes for typical
+    // amounts, which beats Arrays.sort on a full buffer. Reorders values.
+    private static double[] sort(long[] values, int length) {
+        long any = 0;
+        long all = -1;
+        for (int i = 0; i < length; i++) {
+            any |= values[i];
+            all &= values[i];
+        }
+        long differing = any ^ all;
+        long[] from = values;
+        long[] to = new long[length];
+        int[] starts = new int[257];
+        for (int shift = 0; shift < 64; shift += 8) {
+            if ((differing >>> shift & 0xFF) == 0) {
+                continue;
+            }
+            // The top byte holds the sign
+            int flip = shift == 56 ? 0x80 : 0;
+            Arrays.fill(starts, 0);
+            for (int i = 0; i < length; i++) {
+                starts[(int) (from[i] >>> shift & 0xFF ^ flip) + 1]++;
+            }
+            for (int digit = 0; digit < 256; digit++) {
+                starts[digit + 1] += starts[digit];
+            }
+            for (int i = 0; i < length; i++) {
+                to[starts[(int) (from[i] >>> shift & 0xFF ^ flip)]++] = from[i];
+            }
+            long[] sorted = to;
+            to = from;
+            from = sorted;
+        }
+        double[] sorted = new double[length];
+        for (int i = 0; i < length; i++) {
+            sorted[i] = from[i];
+        }
+        return sorted;
+    }
+
+    public AmountDigest copy() {
+        AmountDigest copy = new AmountDigest();
+        copy.means = Arrays.copyOf(means, centroids);
+        copy.counts = Arrays.copyOf(counts, centroids);
+        copy.centroids = centroids;
+        copy.buffer = Arrays.copyOf(buffer, Math.max(buffered, 1));
+        copy.buffered = buffered;
+        copy.count = count;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    // Merges the sorted centroids with the sorted incoming ones (each of
+    // count 1 if incomingCounts is null) into new arrays, so a reader that
+    // races this sees either the old or the new ones. count must already
+    // include the incoming values.
+    private void merge(double[] incoming, long[] incomingCounts, int incomingLength) {
+        double[] mergedMeans = new double[centroids + incomingLength];
+        long[] mergedCounts = new long[mergedMeans.length];
+        int merged = 0;
+        double mean = 0;
+        long weight = 0;
+        long before = 0;
+        double limit = 0;
+        int i = 0;
+        int j = 0;
+        while (i < centroids || j < incomingLength) {
+            double nextMean;
+            long nextWeight;
+            if (j == incomingLength || (i < centroids && means[i] <= incoming[j])) {
+                nextMean = means[i];
+                nextWeight = counts[i++];
+            } else {
+                nextMean = incoming[j];
+                nextWeight = incomingCounts == null ? 1 : incomingCounts[j];
+                j++;
+            }
+            if (weight > 0 && before + weight + nextWeight <= limit) {
+                weight += nextWeight;
+                mean += (nextMean - mean) * nextWeight / weight;
+            } else {
+                if (weight > 0) {
+                    mergedMeans[merged] = mean;
+                    mergedCounts[merged++] = weight;
+                    before += weight;
+                }
+                mean = nextMean;
+                weight = nextWeight;
+                limit = count * maxQuantile((double) before / count);
+            }
+        }
+        if (weight > 0) {
+            mergedMeans[merged] = mean;
+            mergedCounts[merged++] = weight;
+        }
+        means = mergedMeans;
+        counts = mergedCounts;
+        centroids = merged;
+    }
+
+    // Highest quantile a centroid starting at q may reach: one step of
+    // k(q) = COMPRESSION / (2 pi) * asin(2q - 1). With a = asin(2q - 1),
+    // sin(a + step) follows from sin a = 2q - 1 and cos a = sqrt(1 - sin^2 a)
+    // by the angle sum formulas, without calling asin or sin.
+    private static double maxQuantile(double q) {
+        double sin = 2 * q - 1;
+        double cos = Math.sqrt(Math.max(0, 1 - sin * sin));
+        // Past the top of the arc
+        if (cos * COS_STEP - sin * SIN_STEP <= 0) {
+            return 1;
+        }
+        return (sin * COS_STEP + cos * SIN_STEP + 1) / 2;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public int centroidCount() {
+        return centroids;
+    }
+
+    // Estimated value (in cents) below which fraction q of the values lie,
+    // interpolating between the centers of neighbouring centroids and out
+    // to the exact minimum and maximum; NaN when empty. Call flush first.
+    public double quantile(double q) {
+        if (buffered > 0) {
+            throw new IllegalStateException("Digest has unflushed values");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+        double rank = q * count;
+        double previousCenter = 0;
+        double previousMean = min;
+        boolean previousSingle = false;
+        double start = 0;
+        for (int i = 0; i < centroids; i++) {
+            double center = start + counts[i] / 2.0;
+            if (rank < center) {
+                // Single values are exact over their whole unit of rank
+                if (counts[i] == 1 && rank >= start) {
+                    return means[i];
+                }
+                if (previousSingle && rank < start) {
+                    return previousMean;
+                }
+                return previousMean + (rank - previousCenter) / (center - previousCenter) * (means[i] - previousMean);
+            }
+            previousCenter = center;
+            previousMean = means[i];
+            previousSingle = counts[i] == 1;
+            start += counts[i];
+        }
+        if (previousSingle) {
+            return previousMean;
+        }
+        return previousMean + (rank - previousCenter) / (count - previousCenter) * (max - previousMean);
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+// Amounts of one group of expenses (a category or a month), summarized one
+// add at a time: an AmountDigest for percentiles, the MAX_LARGEST largest
+// expenses in a min-heap, and the exact total plus the running mean and
+// variance by Welford's method. Its size is bounded whatever the number of
+// rows, and each part merges with the same part of another sketch, so the
+// sketches of a batch, or of several groups, combine without the rows.
+//
+// Not thread-safe; ExpenseManager only changes its sketches under its view
+// lock and queries copy them.
+public final class AmountSketch {
+    public static final int MAX_LARGEST = 100;
+
+    private final AmountDigest digest;
+    private long count;
+    private long totalCents;
+    private double mean;
+    // Sum of squared differences from the mean
+    private double squares;
+    // Min-heap on (cents, -row): the root is the smallest of the largest,
+    // and of equal amounts the earlier row is kept
+    private long[] largestCents;
+    private int[] largestRows;
+    private int largest;
+
+    public AmountSketch() {
+        this(new AmountDigest(), new long[4], new int[4]);
+    }
+
+    private AmountSketch(AmountDigest digest, long[] largestCents, int[] largestRows) {
+        this.digest = digest;
+        this.largestCents = largestCents;
+        this.largestRows = largestRows;
+    }
+
+    public void add(long cents, int row) {
+        digest.add(cents);
+        count++;
+        totalCents = Math.addExact(totalCents, cents);
+        double delta = cents - mean;
+        mean += delta / count;
+        squares += delta * (cents - mean);
+        addLargest(cents, row);
+    }
+
+    public void addAll(AmountSketch other) {
+        addMoments(other);
+        digest.addAll(other.digest);
+        addLargest(other);
+    }
+
+    // Adds only other's largest expenses
+    void addLargest(AmountSketch other) {
+        for (int i = 0; i < other.largest; i++) {
+            addLargest(other.largestCents[i], other.largestRows[i]);
+        }
+    }
+
+    // Adds only other's count, total, mean and variance, which is all
+    // isOutlier needs
+    void addMoments(AmountSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        // Chan et al.'s pairwise update
+        double delta = other.mean - mean;
+        long combined = count + other.count;
+        mean += delta * other.count / combined;
+        squares += other.squares + delta * delta * ((double) count * other.count / combined);
+        count = combined;
+        totalCents = Math.addExact(totalCents, other.totalCents);
+    }
+
+    private void addLargest(long cents, int row) {
+        if (largest < MAX_LARGEST) {
+            if (largest == largestCents.length) {
+                int capacity = Math.min(Math.max(largest * 2, 4), MAX_LARGEST);
+                largestCents = Arrays.copyOf(largestCents, capacity);
+                largestRows = Arrays.copyOf(largestRows, capacity);
+            }
+            int i = largest++;
+            while (i > 0 && below(cents, row, largestCents[(i - 1) / 2], largestRows[(i - 1) / 2])) {
+                largestCents[i] = largestCents[(i - 1) / 2];
+                largestRows[i] = largestRows[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            largestCents[i] = cents;
+            largestRows[i] = row;
+        } else if (below(largestCents[0], largestRows[0], cents, row)) {
+            replaceSmallest(cents, row);
+        }
+    }
+
+    private void replaceSmallest(long cents, int row) {
+        int i = 0;
+        for (int child = 1; child < largest; child = 2 * i + 1) {
+            if (child + 1 < largest && below(largestCents[child + 1], largestRows[child + 1],
+                    largestCents[child], largestRows[child])) {
+                child++;
+            }
+            if (!below(largestCents[child], largestRows[child], cents, row)) {
+                break;
+            }
+            largestCents[i] = largestCents[child];
+            largestRows[i] = largestRows[child];
+            i = child;
+        }
+        largestCents[i] = cents;
+        largestRows[i] = row;
+    }
+
+    // Whether the first expense ranks below the second
+    private static boolean below(long cents, int row, long otherCents, int otherRow) {
+        return cents < otherCents || (cents == otherCents && row > otherRow);
+    }
+
+    public AmountSketch copy() {
+        AmountSketch copy = new AmountSketch(digest.copy(), Arrays.copyOf(largestCents, largest),
+            Arrays.copyOf(largestRows, largest));
+        copy.count = count;
+        copy.totalCents = totalCents;
+        copy.mean = mean;
+        copy.squares = squares;
+        copy.largest = largest;
+        return copy;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long totalCents() {
+        return totalCents;
+    }
+
+    // In cents
+    public double mean() {
+        return mean;
+    }
+
+    // Population variance, in cents squared
+    public double variance() {
+        return count == 0 ? 0 : Math.max(0, squares) / count;
+    }
+
+    // Standard deviations cents lies above the mean, below if negative
+    public double deviations(long cents) {
+        double difference = cents - mean;
+        return difference == 0 ? 0 : difference / Math.sqrt(variance());
+    }
+
+    public boolean isOutlier(long cents) {
+        return count >= AmountSummary.MIN_OUTLIER_COUNT && deviations(cents) > AmountSummary.OUTLIER_DEVIATIONS;
+    }
+
+    public AmountDigest digest() {
+        return digest;
+    }
+
+    // Rows of the largest expenses, largest first and of equal amounts the
+    // earliest first: a copy of the heap is emptied from its smallest end
+    public int[] largestRows() {
+        AmountSketch heap = new AmountSketch(digest, Arrays.copyOf(largestCents, largest),
+            Arrays.copyOf(largestRows, largest));
+        heap.largest = largest;
+        int[] rows = new int[largest];
+        for (int i = largest - 1; i >= 0; i--) {
+            rows[i] = heap.largestRows[0];
+            heap.largest--;
+            // Sifts the last entry down from the root
+            heap.replaceSmallest(heap.largestCents[heap.largest], heap.largestRows[heap.largest]);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+// Distribution of the amounts of a category or a range of months, as
+// answered by ExpenseManager from its sketches: exact count, total, mean
+// and standard deviation, percentiles estimated by an AmountDigest (exact
+// at the ends, typically within a fraction of a percent of the rank in
+// between), and the largest expenses. Safe to share between threads; it
+// does not follow later adds.
+//
+// An amount counts as an outlier when it is more than OUTLIER_DEVIATIONS
+// standard deviations above the mean, once there are at least
+// MIN_OUTLIER_COUNT expenses to judge by.
+public final class AmountSummary {
+    public static final double OUTLIER_DEVIATIONS = 3;
+    public static final int MIN_OUTLIER_COUNT = 20;
+
+    // Copies no one else holds, one per category id or month; their
+    // digests and largest expenses are only merged when first asked for
+    private final List<AmountSketch> sketches;
+    private final AmountSketch moments = new AmountSketch();
+    // Stored rows never change, so expenses are only created when asked for
+    private final IntFunction<Expense> rows;
+    // Guarded by this
+    private AmountDigest digest;
+    private int[] largestRows;
+
+    AmountSummary(List<AmountSketch> sketches, IntFunction<Expense> rows) {
+        this.sketches = sketches;
+        this.rows = rows;
+        for (AmountSketch sketch : sketches) {
+            moments.addMoments(sketch);
+        }
+    }
+
+    private synchronized AmountDigest digest() {
+        if (digest == null) {
+            if (sketches.size() == 1) {
+                digest = sketches.get(0).digest();
+            } else {
+                digest = new AmountDigest();
+                for (AmountSketch sketch : sketches) {
+                    digest.addAll(sketch.digest());
+                }
+            }
+            digest.flush();
+        }
+        return digest;
+    }
+
+    private synchronized int[] largestRows() {
+        if (largestRows == null) {
+            AmountSketch largest = new AmountSketch();
+            for (AmountSketch sketch : sketches) {
+                largest.addLargest(sketch);
+            }
+            largestRows = largest.largestRows();
+        }
+        return largestRows;
+    }
+
+    public long getCount() {
+        return moments.count();
+    }
+
+    public double getTotal() {
+        return ExpenseStore.toAmount(moments.totalCents());
+    }
+
+    public long getTotalCents() {
+        return moments.totalCents();
+    }
+
+    // 0 when empty
+    public double getMean() {
+        return moments.mean() / 100;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(moments.variance()) / 100;
+    }
+
+    // NaN when empty
+    public double getMin() {
+        return getPercentile(0);
+    }
+
+    public double getMax() {
+        return getPercentile(100);
+    }
+
+    // Estimated amount at or below which the given percent of expenses lie,
+    // e.g. 95 for p95; NaN when empty
+    public double getPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        double cents = digest().quantile(percentile / 100);
+        return Double.isNaN(cents) ? cents : Math.round(cents) / 100.0;
+    }
+
+    // Up to AmountSketch.MAX_LARGEST expenses, largest first; of equal
+    // amounts the earlier added comes first
+    public List<Expense> getLargest() {
+        return getLargest(AmountSketch.MAX_LARGEST);
+    }
+
+    public List<Expense> getLargest(int limit) {
+        int[] largestRows = largestRows();
+        int size = Math.max(0, Math.min(limit, largestRows.length));
+        List<Expense> largest = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            largest.add(rows.apply(largestRows[i]));
+        }
+        return largest;
+    }
+
+    // Row numbers of getLargest, for views that read rows in place
+    public int[] getLargestRows() {
+        return largestRows().clone();
+    }
+
+    // Standard deviations amount lies above the mean, below if negative;
+    // infinite for any other amount when all amounts are equal
+    public double getDeviations(double amount) {
+        return moments.deviations(ExpenseStore.toCents(amount));
+    }
+
+    public boolean isOutlier(double amount) {
+        return moments.isOutlier(ExpenseStore.toCents(amount));
+    }
+}
@@ -0,0 +1,89 @@
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+// Runs ledger work on SwingWorker threads so the event dispatch thread
+// never waits on ExpenseManager. Results, errors and progress messages are
+// delivered on the EDT. Submitting a task under a key that is still
+// running supersedes it: the older task is cancelled and its result is
+// dropped. All methods must be called on the EDT.
+public class BackgroundTasks {
+    private final JProgressBar progressBar;
+    private final JLabel statusLabel;
+    private final Map<String, SwingWorker<?, ?>> running = new HashMap<>();
+    private int active;
+
+    public BackgroundTasks(JProgressBar progressBar, JLabel statusLabel) {
+        this.progressBar = progressBar;
+        this.statusLabel = statusLabel;
+        progressBar.setVisible(false);
+    }
+
+    public interface Task<T> {
+        T run(Consumer<String> progress) throws Exception;
+    }
+
+    public <T> void submit(String key, String description, Task<T> task,
+                           Consumer<T> onSuccess, Consumer<Exception> onError) {
+        SwingWorker<T, String> worker = new SwingWorker<T, String>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                return task.run(this::publish);
+            }
+
+            @Override
+            protected void process(List<String> messages) {
+                if (!isCancelled()) {
+                    statusLabel.setText(messages.get(messages.size() - 1));
+                }
+            }
+
+            @Override
+            protected void done() {
+                finished(key, this, description);
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    onSuccess.accept(get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    onError.accept(cause instanceof Exception ? (Exception) cause : e);
+                } catch (InterruptedException | CancellationException e) {
+                    // Superseded while finishing
+                }
+            }
+        };
+
+        if (key != null) {
+            SwingWorker<?, ?> previous = running.put(key, worker);
+            if (previous != null) {
+                previous.cancel(true);
+            }
+        }
+        active++;
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(true);
+        statusLabel.setText(description + "...");
+        worker.execute();
+    }
+
+    public <T> void submit(String description, Task<T> task,
+                           Consumer<T> onSuccess, Consumer<Exception> onError) {
+        submit(null, description, task, onSuccess, onError);
+    }
+
+    private void finished(String key, SwingWorker<?, ?> worker, String description) {
+        if (key != null && running.get(key) == worker) {
+            running.remove(key);
+        }
+        if (--active == 0) {
+            progressBar.setVisible(false);
+            statusLabel.setText(worker.isCancelled() ? " " : description + " done");
+        }
+    }
+}
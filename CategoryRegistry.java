@@ -0,0 +1,153 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Case-insensitive index of the ledger's category names. Spellings that
+// differ only in case or surrounding spaces ("Groceries", "groceries ")
+// share one key, the trimmed name folded to lower case, and each key gets a
+// dense id. Per key it lists the store category ids spelled that way, and
+// the keys kept in sorted order answer prefix lookups with two binary
+// searches. Keys can also be registered before any expense uses them.
+//
+// Updated on insert under ExpenseManager's view lock. Each update replaces
+// an immutable snapshot, so lookups never see a half-built index; new
+// categories are rare, so copying on change is cheap.
+public final class CategoryRegistry {
+    private static final Names EMPTY = new Names(new HashMap<>(), new String[0], new int[0][], 0,
+        new String[0], new int[0]);
+
+    private volatile Names names = EMPTY;
+
+    public static String fold(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Adds a key for name unless one exists; the first spelling seen is the
+    // one suggested
+    public void register(String name) {
+        Names current = names;
+        if (!current.keys.containsKey(fold(name))) {
+            names = current.with(new String[] {name.trim()}, 0, 0);
+        }
+    }
+
+    // Takes in the store categories added since the last update
+    public void update(ExpenseStore store) {
+        Names current = names;
+        int count = store.categoryCount();
+        if (count > current.storeIdCount) {
+            String[] added = new String[count - current.storeIdCount];
+            for (int id = current.storeIdCount; id < count; id++) {
+                added[id - current.storeIdCount] = store.categoryName(id);
+            }
+            names = current.with(added, current.storeIdCount, count);
+        }
+    }
+
+    public void clear() {
+        names = EMPTY;
+    }
+
+    public int size() {
+        return names.names.length;
+    }
+
+    // Key id of name ignoring case, or -1
+    public int find(String name) {
+        Integer key = names.keys.get(fold(name));
+        return key == null ? -1 : key;
+    }
+
+    public String name(int key) {
+        return names.names[key];
+    }
+
+    // Store category ids spelled as this key; empty if only registered
+    public int[] storeIds(int key) {
+        return names.storeIds[key];
+    }
+
+    // Keys whose folded name starts with the prefix, ignoring case and
+    // leading spaces, in name order
+    public int[] keysWithPrefix(String prefix) {
+        Names current = names;
+        int start = 0;
+        while (start < prefix.length() && Character.isWhitespace(prefix.charAt(start))) {
+            start++;
+        }
+        String folded = prefix.substring(start).toLowerCase(Locale.ROOT);
+        int from = lowerBound(current.sorted, folded);
+        int to = lowerBound(current.sorted, folded + Character.MAX_VALUE);
+        return Arrays.copyOfRange(current.sortedKeys, from, to);
+    }
+
+    private static int lowerBound(String[] sorted, String value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle].compareTo(value) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static final class Names {
+        final Map<String, Integer> keys;
+        final String[] names;
+        final int[][] storeIds;
+        // Store ids below this are registered
+        final int storeIdCount;
+        // Folded names in order, and the key of each
+        final String[] sorted;
+        final int[] sortedKeys;
+
+        Names(Map<String, Integer> keys, String[] names, int[][] storeIds, int storeIdCount,
+              String[] sorted, int[] sortedKeys) {
+            this.keys = keys;
+            this.names = names;
+            this.storeIds = storeIds;
+            this.storeIdCount = storeIdCount;
+            this.sorted = sorted;
+            this.sortedKeys = sortedKeys;
+        }
+
+        // A copy with spellings added, which are store ids [firstStoreId,
+        // storeIdCount) or, if those are equal, names without rows
+        Names with(String[] spellings, int firstStoreId, int storeIdCount) {
+            Map<String, Integer> keys = new HashMap<>(this.keys);
+            String[] names = Arrays.copyOf(this.names, this.names.length + spellings.length);
+            int[][] storeIds = Arrays.copyOf(this.storeIds, names.length);
+            int size = this.names.length;
+            for (int i = 0; i < spellings.length; i++) {
+                String folded = fold(spellings[i]);
+                Integer key = keys.get(folded);
+                if (key == null) {
+                    key = size++;
+                    keys.put(folded, key);
+                    names[key] = spellings[i].trim();
+                    storeIds[key] = new int[0];
+                }
+                if (firstStoreId < storeIdCount) {
+                    int[] ids = Arrays.copyOf(storeIds[key], storeIds[key].length + 1);
+                    ids[ids.length - 1] = firstStoreId + i;
+                    storeIds[key] = ids;
+                }
+            }
+            names = Arrays.copyOf(names, size);
+            storeIds = Arrays.copyOf(storeIds, size);
+
+            String[] sorted = keys.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            int[] sortedKeys = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sortedKeys[i] = keys.get(sorted[i]);
+            }
+            return new Names(keys, names, storeIds, Math.max(this.storeIdCount, storeIdCount), sorted, sortedKeys);
+        }
+    }
+}
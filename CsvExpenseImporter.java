@@ -0,0 +1,201 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+// Streams a CSV file into ExpenseManager in fixed-size batches. Each batch
+// is parsed in parallel and committed with one ExpenseManager.addExpenses
+// call; bad rows are reported by line number without stopping the import.
+// The journal writes batches to disk in the background while the next one
+// is parsed; an import returns once all of them are durable.
+//
+// Columns default to amount,category,date. A header row naming those
+// columns (in any order) is recognised and used to map them.
+//
+//   java CsvExpenseImporter statement.csv
+public class CsvExpenseImporter {
+    private static final int BATCH_SIZE = 50_000;
+
+    private final ExpenseManager manager;
+    private LongConsumer progressListener = lines -> { };
+
+    public CsvExpenseImporter(ExpenseManager manager) {
+        this.manager = manager;
+    }
+
+    // Called with the number of lines processed after each batch
+    public void setProgressListener(LongConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public ImportResult importFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader);
+        }
+    }
+
+    public ImportResult importFrom(BufferedReader reader) throws IOException {
+        ImportResult result = new ImportResult();
+        int[] columns = {0, 1, 2};
+        List<String> lines = new ArrayList<>(BATCH_SIZE);
+        long lineNumber = 0;
+        long firstLine = 1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1) {
+                int[] header = parseHeader(line);
+                if (header != null) {
+                    columns = header;
+                    firstLine = 2;
+                    continue;
+                }
+            }
+            lines.add(line);
+            if (lines.size() == BATCH_SIZE) {
+                importBatch(lines, firstLine, columns, result);
+                firstLine = lineNumber + 1;
+                lines.clear();
+                progressListener.accept(lineNumber);
+            }
+        }
+        if (!lines.isEmpty()) {
+            importBatch(lines, firstLine, columns, result);
+            progressListener.accept(lineNumber);
+        }
+        JournalWriter.await(manager.whenDurable());
+        return result;
+    }
+
+    private void importBatch(List<String> lines, long firstLine, int[] columns, ImportResult result) {
+        int count = lines.size();
+        Expense[] parsed = new Expense[count];
+        String[] errors = new String[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            try {
+                parsed[i] = parseLine(lines.get(i), columns);
+            } catch (IllegalArgumentException e) {
+                errors[i] = e.getMessage();
+            }
+        });
+
+        List<Expense> batch = new ArrayList<>(count);
+        long[] lineNumbers = new long[count];
+        for (int i = 0; i < count; i++) {
+            if (lines.get(i).trim().isEmpty()) {
+                continue;
+            }
+            if (errors[i] != null) {
+                result.addError(firstLine + i, errors[i]);
+            } else {
+                lineNumbers[batch.size()] = firstLine + i;
+                batch.add(parsed[i]);
+            }
+        }
+
+        ImportResult committed = manager.addExpenses(batch);
+        result.addAdded(committed.getAdded());
+        for (ImportResult.RowError error : committed.getErrors()) {
+            result.addError(lineNumbers[(int) error.getRow()], error.getMessage());
+        }
+    }
+
+    private static Expense parseLine(String line, int[] columns) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        List<String> fields = split(line);
+        if (fields.size() <= Math.max(columns[0], Math.max(columns[1], columns[2]))) {
+            throw new IllegalArgumentException("Expected amount, category and date");
+        }
+        double amount;
+        try {
+            amount = Double.parseDouble(fields.get(columns[0]).trim().replace("$", ""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Please enter a valid amount");
+        }
+        // parseDouble also accepts NaN, Infinity and 1e400
+        ExpenseStore.validCents(amount);
+        return new Expense(amount, fields.get(columns[1]), fields.get(columns[2]));
+    }
+
+    // Returns column positions for amount, category, date if the line is a header
+    private static int[] parseHeader(String line) {
+        List<String> fields = split(line);
+        int[] columns = {-1, -1, -1};
+        for (int i = 0; i < fields.size(); i++) {
+            switch (fields.get(i).trim().toLowerCase()) {
+                case "amount":
+                    columns[0] = i;
+                    break;
+                case "category":
+                    columns[1] = i;
+                    break;
+                case "date":
+                    columns[2] = i;
+                    break;
+                default:
+                    break;
+            }
+        }
+        for (int column : columns) {
+            if (column < 0) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    // RFC 4180 field splitting for a single line: quoted fields may contain
+    // commas and doubled quotes
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java CsvExpenseImporter <file.csv>...");
+            System.exit(1);
+        }
+        try (ExpenseManager manager = new ExpenseManager()) {
+            CsvExpenseImporter importer = new CsvExpenseImporter(manager);
+            for (String arg : args) {
+                long start = System.nanoTime();
+                ImportResult result = importer.importFile(Paths.get(arg));
+                System.out.printf("%s: %s in %.1f s%n", arg, result, (System.nanoTime() - start) / 1e9);
+                for (ImportResult.RowError error : result.getErrors()) {
+                    System.out.printf("  line %d: %s%n", error.getRow(), error.getMessage());
+                }
+            }
+        }
+    }
+}
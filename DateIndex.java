@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+// Row ids ordered by epoch day. Each entry packs (day << 32 | row), so plain
+// long ordering sorts by date and then by insertion order. Inserts at or
+// after the latest date append to the main run; back-dated inserts go into
+// a small sorted pending run that is merged in once it grows past ~sqrt(n).
+//
+// Not thread-safe. Lookups copy the fields they use into locals first, so
+// a reader racing a writer (ExpenseManager's optimistic reads) sees at
+// worst inconsistent results or an exception, never a hang.
+public class DateIndex {
+    private static final int MIN_PENDING = 1024;
+
+    private long[] entries = new long[1024];
+    private int size;
+    private long[] pending = new long[64];
+    private int pendingSize;
+
+    public void add(int epochDay, int row) {
+        long entry = pack(epochDay, row);
+        if (pendingSize == 0 && (size == 0 || entry > entries[size - 1])) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+            return;
+        }
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, pendingSize * 2);
+        }
+        int at = -Arrays.binarySearch(pending, 0, pendingSize, entry) - 1;
+        System.arraycopy(pending, at, pending, at + 1, pendingSize - at);
+        pending[at] = entry;
+        pendingSize++;
+        if (pendingSize > Math.max(MIN_PENDING, 4 * (int) Math.sqrt(size))) {
+            compact();
+        }
+    }
+
+    // Indexes rows [fromRow, toRow) with one sort and one merge: mergeRows
+    // builds the new main run without touching the index, install swaps it
+    // in. The expensive half can run while readers still use the old runs.
+    public long[] mergeRows(ExpenseStore store, int fromRow, int toRow) {
+        long[] batch = new long[toRow - fromRow];
+        for (int row = fromRow; row < toRow; row++) {
+            batch[row - fromRow] = pack(store.epochDay(row), row);
+        }
+        Arrays.parallelSort(batch);
+        if (pendingSize > 0) {
+            batch = merge(pending, pendingSize, batch, batch.length, batch.length + pendingSize);
+        }
+        return merge(entries, size, batch, batch.length, Math.max(entries.length, size + batch.length));
+    }
+
+    // count is the number of entries in merged: size() plus the rows added
+    public void install(long[] merged, int count) {
+        entries = merged;
+        size = count;
+        pendingSize = 0;
+    }
+
+    public void rebuild(ExpenseStore store) {
+        size = store.size();
+        entries = new long[Math.max(1024, size)];
+        for (int row = 0; row < size; row++) {
+            entries[row] = pack(store.epochDay(row), row);
+        }
+        Arrays.parallelSort(entries, 0, size);
+        pendingSize = 0;
+    }
+
+    public void clear() {
+        size = 0;
+        pendingSize = 0;
+    }
+
+    public int size() {
+        return size + pendingSize;
+    }
+
+    // Merges the pending run into the main run
+    public void compact() {
+        if (pendingSize == 0) {
+            return;
+        }
+        entries = merge(entries, size, pending, pendingSize, Math.max(entries.length, size + pendingSize));
+        size += pendingSize;
+        pendingSize = 0;
+    }
+
+    private static long[] merge(long[] a, int aLength, long[] b, int bLength, int capacity) {
+        long[] merged = new long[capacity];
+        int i = 0, j = 0, k = 0;
+        while (i < aLength && j < bLength) {
+            merged[k++] = a[i] < b[j] ? a[i++] : b[j++];
+        }
+        System.arraycopy(a, i, merged, k, aLength - i);
+        k += aLength - i;
+        System.arraycopy(b, j, merged, k, bLength - j);
+        return merged;
+    }
+
+    // Row id at the given position in date order. Finds how many of the
+    // first `position` entries come from the main run by binary search, so
+    // it never has to merge (or modify) the runs.
+    public int rowAt(int position) {
+        long[] entries = this.entries;
+        long[] pending = this.pending;
+        int size = Math.min(this.size, entries.length);
+        int pendingSize = Math.min(this.pendingSize, pending.length);
+        int low = Math.max(0, position - pendingSize);
+        int high = Math.min(position, size);
+        while (low < high) {
+            int i = (low + high) >>> 1;
+            int j = position - i;
+            if (j > 0 && i < size && entries[i] < pending[j - 1]) {
+                low = i + 1;
+            } else {
+                high = i;
+            }
+        }
+        int j = position - low;
+        long fromMain = low < size ? entries[low] : Long.MAX_VALUE;
+        long fromPending = j < pendingSize ? pending[j] : Long.MAX_VALUE;
+        return row(Math.min(fromMain, fromPending));
+    }
+
+    // Number of rows with fromDay <= day <= toDay, by binary search only
+    public int countBetween(int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return 0;
+        }
+        long[] entries = this.entries;
+        long[] pending = this.pending;
+        int size = Math.min(this.size, entries.length);
+        int pendingSize = Math.min(this.pendingSize, pending.length);
+        long low = pack(fromDay, 0);
+        long high = pack(toDay, -1);
+        return Math.max(0, upperBound(entries, size, high) - lowerBound(entries, size, low))
+            + Math.max(0, upperBound(pending, pendingSize, high) - lowerBound(pending, pendingSize, low));
+    }
+
+    // Row ids with fromDay <= day <= toDay, in date then insertion order
+    public int[] rowsBetween(int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return new int[0];
+        }
+        long[] entries = this.entries;
+        long[] pending = this.pending;
+        int size = Math.min(this.size, entries.length);
+        int pendingSize = Math.min(this.pendingSize, pending.length);
+        long low = pack(fromDay, 0);
+        long high = pack(toDay, -1);
+        int mainFrom = lowerBound(entries, size, low);
+        int mainTo = upperBound(entries, size, high);
+        int pendingFrom = lowerBound(pending, pendingSize, low);
+        int pendingTo = upperBound(pending, pendingSize, high);
+
+        int[] rows = new int[Math.max(0, mainTo - mainFrom) + Math.max(0, pendingTo - pendingFrom)];
+        int i = mainFrom, j = pendingFrom, k = 0;
+        while (i < mainTo && j < pendingTo) {
+            rows[k++] = row(entries[i] < pending[j] ? entries[i++] : pending[j++]);
+        }
+        while (i < mainTo) {
+            rows[k++] = row(entries[i++]);
+        }
+        while (j < pendingTo) {
+            rows[k++] = row(pending[j++]);
+        }
+        return rows;
+    }
+
+    private static int lowerBound(long[] a, int length, long key) {
+        int low = 0, high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(long[] a, int length, long key) {
+        int low = 0, high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long pack(int epochDay, int row) {
+        return ((long) epochDay << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    private static int row(long entry) {
+        return (int) entry;
+    }
+}
@@ -0,0 +1,61 @@
+// When a journal write counts as done. Every mode hands each group commit
+// to the OS before acknowledging it; they differ in when it is fsynced:
+//
+//   SYNC           fsync after every group commit; an acknowledged add
+//                  survives a power failure
+//   periodic(ms)   fsync at most every ms milliseconds; adds are
+//                  acknowledged after the fsync that covers them
+//   BUFFERED       never fsync the log (snapshots still are); an
+//                  acknowledged add survives a crash of the process but not
+//                  of the machine
+//
+// Parsed from "sync", "buffered" or a number of milliseconds.
+public final class Durability {
+    public static final Durability SYNC = new Durability(0);
+    public static final Durability BUFFERED = new Durability(-1);
+
+    private final long syncIntervalMillis;
+
+    private Durability(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public static Durability periodic(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Sync interval must be greater than 0");
+        }
+        return new Durability(intervalMillis);
+    }
+
+    public static Durability parse(String mode) {
+        switch (mode.trim().toLowerCase()) {
+            case "sync":
+                return SYNC;
+            case "buffered":
+                return BUFFERED;
+            default:
+                try {
+                    return periodic(Long.parseLong(mode.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Durability must be sync, buffered or a number of milliseconds");
+                }
+        }
+    }
+
+    public boolean syncsEveryCommit() {
+        return syncIntervalMillis == 0;
+    }
+
+    public boolean syncsPeriodically() {
+        return syncIntervalMillis > 0;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return syncsEveryCommit() ? "sync" : syncsPeriodically() ? syncIntervalMillis + " ms" : "buffered";
+    }
+}
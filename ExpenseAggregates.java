@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+// Running totals (in cents) kept in step with the store on every add, so
+// report queries read them directly instead of scanning all rows.
+//
+// Not thread-safe; ExpenseManager only changes it under its view lock.
+// A bulk add builds its totals in a separate instance first and merges
+// them in with addAll, which costs one step per distinct day and month.
+public class ExpenseAggregates {
+    private static final int MAX_DENSE_DAYS = 1 << 20;
+
+    private long total;
+    private long[] categoryTotals = new long[16];
+    private int[] categoryRows = new int[16];
+    private final IntLongMap monthTotals = new IntLongMap();
+    private final IntLongMap dayTotals = new IntLongMap(1024);
+
+    // Totals are checked with addExact: the month, day and category totals
+    // are parts of total, so they cannot overflow unless it does
+    public void add(int epochDay, long cents, int categoryId) {
+        total = Math.addExact(total, cents);
+        if (categoryId >= categoryTotals.length) {
+            int capacity = Math.max(categoryTotals.length * 2, categoryId + 1);
+            categoryTotals = Arrays.copyOf(categoryTotals, capacity);
+            categoryRows = Arrays.copyOf(categoryRows, capacity);
+        }
+        categoryTotals[categoryId] += cents;
+        categoryRows[categoryId]++;
+        monthTotals.add(ExpenseStore.monthKey(epochDay), cents);
+        dayTotals.add(epochDay, cents);
+    }
+
+    public void addRows(ExpenseStore store, int fromRow, int toRow) {
+        for (int row = fromRow; row < toRow; row++) {
+            add(store.epochDay(row), store.cents(row), store.categoryId(row));
+        }
+    }
+
+    public void addAll(ExpenseAggregates other) {
+        total = Math.addExact(total, other.total);
+        if (other.categoryTotals.length > categoryTotals.length) {
+            categoryTotals = Arrays.copyOf(categoryTotals, other.categoryTotals.length);
+            categoryRows = Arrays.copyOf(categoryRows, other.categoryTotals.length);
+        }
+        for (int id = 0; id < other.categoryTotals.length; id++) {
+            categoryTotals[id] += other.categoryTotals[id];
+            categoryRows[id] += other.categoryRows[id];
+        }
+        other.monthTotals.forEach(monthTotals::add);
+        other.dayTotals.forEach(dayTotals::add);
+    }
+
+    // Sums the whole store with MoneyKernels: per category straight into
+    // the arrays, and per day into a flat array over the store's days,
+    // which is folded into the day and month maps once per distinct day.
+    // Days spanning more than MAX_DENSE_DAYS are added row by row instead.
+    public void rebuild(ExpenseStore store) {
+        clear();
+        if (store.size() == 0) {
+            return;
+        }
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        for (int chunk = 0; chunk < store.chunkCount(); chunk++) {
+            int[] range = MoneyKernels.dayRange(store.dayChunk(chunk), 0, store.chunkLength(chunk));
+            firstDay = Math.min(firstDay, range[0]);
+            lastDay = Math.max(lastDay, range[1]);
+        }
+        if ((long) lastDay - firstDay >= MAX_DENSE_DAYS) {
+            addRows(store, 0, store.size());
+            return;
+        }
+        int categoryCount = store.categoryCount();
+        if (categoryCount > categoryTotals.length) {
+            categoryTotals = new long[categoryCount];
+            categoryRows = new int[categoryCount];
+        }
+        MoneyKernels.Filter all = MoneyKernels.Filter.all(categoryCount);
+        long[] days = new long[lastDay - firstDay + 1];
+        int[] rowsPerDay = new int[days.length];
+        long[] sums = new long[2];
+        // The category pass already sums every row
+        long[] sameSums = new long[2];
+        for (int chunk = 0; chunk < store.chunkCount(); chunk++) {
+            int[] dayChunk = store.dayChunk(chunk);
+            long[] centChunk = store.centChunk(chunk);
+            int[] categoryChunk = store.categoryChunk(chunk);
+            int length = store.chunkLength(chunk);
+            MoneyKernels.sumByCategory(all, dayChunk, centChunk, categoryChunk, 0, length, categoryTotals,
+                categoryRows, sums);
+            MoneyKernels.sumByDay(all, dayChunk, centChunk, categoryChunk, 0, length, firstDay, days, rowsPerDay,
+                sameSums);
+        }
+        total = sums[0];
+        for (int i = 0; i < days.length; i++) {
+            if (rowsPerDay[i] > 0) {
+                dayTotals.add(firstDay + i, days[i]);
+                monthTotals.add(ExpenseStore.monthKey(firstDay + i), days[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        total = 0;
+        Arrays.fill(categoryTotals, 0);
+        Arrays.fill(categoryRows, 0);
+        monthTotals.clear();
+        dayTotals.clear();
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public long categoryTotal(int categoryId) {
+        long[] totals = categoryTotals;
+        return categoryId < totals.length ? totals[categoryId] : 0;
+    }
+
+    public int categoryRows(int categoryId) {
+        int[] rows = categoryRows;
+        return categoryId < rows.length ? rows[categoryId] : 0;
+    }
+
+    public long dayTotal(int epochDay) {
+        return dayTotals.get(epochDay);
+    }
+
+    public IntLongMap monthTotals() {
+        return monthTotals;
+    }
+
+    public IntLongMap dayTotals() {
+        return dayTotals;
+    }
+}
@@ -0,0 +1,121 @@
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+
+// One change to a ledger as delivered to ExpenseManager subscribers: rows
+// [firstRow, firstRow + rowCount) were added. Besides what the rows add, in
+// total and per month, it carries the ledger's totals after the change, so
+// a listener that started from any earlier state can set its figures
+// instead of adding to them. Amounts are in cents.
+//
+// Changes a slow subscriber has not taken yet are merged into one
+// BATCH_ADDED change; merging loses nothing since rows are only appended.
+public final class ExpenseChange {
+    public enum Type { ADDED, BATCH_ADDED }
+
+    private final Type type;
+    private final int firstRow;
+    private final int rowCount;
+    private final long cents;
+    private final long ledgerCents;
+    // Month key -> cents the rows add to it, and the month's total after
+    private final IntLongMap monthCents;
+    private final IntLongMap ledgerMonthCents;
+    private final int categoryCount;
+    private final boolean newCategories;
+
+    ExpenseChange(Type type, int firstRow, int rowCount, long cents, long ledgerCents, IntLongMap monthCents,
+                  IntLongMap ledgerMonthCents, int categoryCount, boolean newCategories) {
+        this.type = type;
+        this.firstRow = firstRow;
+        this.rowCount = rowCount;
+        this.cents = cents;
+        this.ledgerCents = ledgerCents;
+        this.monthCents = monthCents;
+        this.ledgerMonthCents = ledgerMonthCents;
+        this.categoryCount = categoryCount;
+        this.newCategories = newCategories;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // Row count of the ledger after the change
+    public int getEndRow() {
+        return firstRow + rowCount;
+    }
+
+    // Sum of the added rows
+    public long getCents() {
+        return cents;
+    }
+
+    // Total of the whole ledger after the change
+    public long getLedgerCents() {
+        return ledgerCents;
+    }
+
+    public boolean touchesMonth(YearMonth month) {
+        return monthCents.containsKey(monthKey(month));
+    }
+
+    // What the added rows add to the month
+    public long getMonthCents(YearMonth month) {
+        return monthCents.get(monthKey(month));
+    }
+
+    // The month's total after the change; only known for months the change
+    // touches, 0 for others
+    public long getLedgerMonthCents(YearMonth month) {
+        return ledgerMonthCents.get(monthKey(month));
+    }
+
+    // "yyyy-MM" -> what the added rows add to that month
+    public Map<String, Long> getMonthTotalsCents() {
+        Map<String, Long> months = new HashMap<>();
+        monthCents.forEach((month, value) -> months.put(ExpenseStore.formatMonth(month), value));
+        return months;
+    }
+
+    public int getCategoryCount() {
+        return categoryCount;
+    }
+
+    // Whether the rows used categories the ledger did not have before
+    public boolean hasNewCategories() {
+        return newCategories;
+    }
+
+    // This change followed by the next one, which must start where this ends
+    ExpenseChange merge(ExpenseChange next) {
+        if (next.firstRow != getEndRow()) {
+            throw new IllegalArgumentException("Changes are not contiguous");
+        }
+        IntLongMap months = new IntLongMap(monthCents.size() + next.monthCents.size());
+        monthCents.forEach(months::add);
+        next.monthCents.forEach(months::add);
+        IntLongMap ledgerMonths = new IntLongMap(months.size());
+        months.forEach((month, value) -> ledgerMonths.add(month, next.ledgerMonthCents.containsKey(month)
+            ? next.ledgerMonthCents.get(month) : ledgerMonthCents.get(month)));
+        return new ExpenseChange(Type.BATCH_ADDED, firstRow, rowCount + next.rowCount, cents + next.cents,
+            next.ledgerCents, months, ledgerMonths, next.categoryCount, newCategories || next.newCategories);
+    }
+
+    private static int monthKey(YearMonth month) {
+        return month.getYear() * 12 + month.getMonthValue() - 1;
+    }
+
+    @Override
+    public String toString() {
+        return type + " rows " + firstRow + ".." + getEndRow() + " (" + ExpenseStore.toAmount(cents) + ")";
+    }
+}
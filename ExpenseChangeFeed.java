@@ -0,0 +1,215 @@
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// Delivers a ledger's changes to its subscribers, in order, with the
+// Reactive Streams protocol of java.util.concurrent.Flow (which the Java 8
+// build cannot use directly): a subscriber gets onSubscribe, then at most
+// as many onNext calls as it has requested, then onComplete when the ledger
+// closes, or onError if it threw or requested a count below 1.
+//
+// Publishing never blocks the writer. Each subscriber has its own queue of
+// at most MAX_PENDING changes; once full, further changes are merged into
+// the newest one, so a subscriber that falls behind receives fewer, larger
+// BATCH_ADDED changes instead of holding up adds or missing rows. Signals
+// run on the executor, one at a time per subscriber.
+public final class ExpenseChangeFeed {
+    static final int MAX_PENDING = 64;
+
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(ExpenseChange change);
+
+        void onError(Throwable error);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        // Allows n more onNext calls
+        void request(long n);
+
+        // Stops delivery; changes already queued are dropped
+        void cancel();
+    }
+
+    private final Executor executor;
+    private final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public ExpenseChangeFeed() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ExpenseChangeFeed(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void subscribe(Subscriber subscriber) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("Subscriber cannot be null");
+        }
+        Delivery delivery = new Delivery(subscriber);
+        synchronized (this) {
+            if (!closed) {
+                deliveries.add(delivery);
+            } else {
+                delivery.completing = true;
+            }
+        }
+        delivery.start();
+    }
+
+    // Lets callers skip building changes nobody receives
+    public boolean hasSubscribers() {
+        return !deliveries.isEmpty();
+    }
+
+    // Called by one writer at a time, in the order the changes happened
+    public void publish(ExpenseChange change) {
+        for (Delivery delivery : deliveries) {
+            delivery.offer(change);
+        }
+    }
+
+    // Completes every subscription once its queued changes are delivered
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        for (Delivery delivery : deliveries) {
+            delivery.complete();
+        }
+        deliveries.clear();
+    }
+
+    // One subscriber's queue and demand; guarded by itself
+    private final class Delivery implements Subscription, Runnable {
+        private final Subscriber subscriber;
+        private final ArrayDeque<ExpenseChange> pending = new ArrayDeque<>();
+        private long demand;
+        private boolean started;
+        private boolean scheduled;
+        private boolean completing;
+        private boolean done;
+        private Throwable error;
+
+        Delivery(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            try {
+                subscriber.onSubscribe(this);
+            } catch (Throwable e) {
+                fail(e);
+            }
+            synchronized (this) {
+                started = true;
+                schedule();
+            }
+        }
+
+        synchronized void offer(ExpenseChange change) {
+            if (done) {
+                return;
+            }
+            if (pending.size() >= MAX_PENDING) {
+                pending.addLast(pending.pollLast().merge(change));
+            } else {
+                pending.addLast(change);
+            }
+            schedule();
+        }
+
+        synchronized void complete() {
+            completing = true;
+            schedule();
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested count must be at least 1, got " + n));
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                done = true;
+                pending.clear();
+            }
+            deliveries.remove(this);
+        }
+
+        private synchronized void fail(Throwable e) {
+            if (!done && error == null) {
+                error = e;
+                pending.clear();
+                schedule();
+            }
+        }
+
+        // Call while holding this
+        private void schedule() {
+            if (started && !scheduled && !done
+                    && (error != null || (demand > 0 && !pending.isEmpty()) || (completing && pending.isEmpty()))) {
+                scheduled = true;
+                executor.execute(this);
+            }
+        }
+
+        // Sends queued signals until demand or changes run out
+        @Override
+        public void run() {
+            while (true) {
+                ExpenseChange change = null;
+                Throwable failure = null;
+                boolean finish = false;
+                synchronized (this) {
+                    if (done) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (error != null) {
+                        failure = error;
+                        done = true;
+                    } else if (demand > 0 && !pending.isEmpty()) {
+                        change = pending.pollFirst();
+                        demand--;
+                    } else if (completing && pending.isEmpty()) {
+                        finish = true;
+                        done = true;
+                    } else {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                if (failure != null) {
+                    deliveries.remove(this);
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (finish) {
+                    subscriber.onComplete();
+                    return;
+                }
+                try {
+                    subscriber.onNext(change);
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Snapshot + append-only log. Every add is one record appended to the log;
+// checkpoints move the logged rows into the snapshot, a directory of
+// per-month segments (see LedgerSegments). Both carry a generation number
+// so a log that was already folded into the snapshot (crash between the
+// manifest rename and the log reset) is never replayed twice.
+//
+// Writes are buffered until flush (handed to the OS) or sync (fsynced);
+// JournalWriter decides when to call which.
+public class ExpenseJournal {
+    private static final int LOG_MAGIC = 0x45584A31;  // "EXJ1"
+    private static final int LOG_HEADER_SIZE = 12;
+    private static final int CHECKPOINT_RECORDS = 10_000;
+
+    private final LedgerSegments segments;
+    private final Path legacySnapshotFile;
+    private final Path logFile;
+    private FileChannel logChannel;
+    private DataOutputStream log;
+    private long generation;
+    private int logRecords;
+    // Set once load succeeds; until then nothing may be checkpointed over
+    // the files it failed to read
+    private boolean loaded;
+
+    // legacySnapshotFile is a single-file ledger from before segments; it
+    // is split into segments on first load and then deleted
+    public ExpenseJournal(Path segmentDirectory, Path legacySnapshotFile, Path logFile) {
+        this.segments = new LedgerSegments(segmentDirectory);
+        this.legacySnapshotFile = legacySnapshotFile;
+        this.logFile = logFile;
+    }
+
+    public synchronized void load(ExpenseStore store) throws IOException {
+        if (segments.exists()) {
+            generation = segments.load(store);
+        } else if (Files.exists(legacySnapshotFile)) {
+            generation = LedgerFile.read(legacySnapshotFile, store);
+            segments.checkpoint(store, store.size(), generation);
+            Files.delete(legacySnapshotFile);
+        } else {
+            generation = 0;
+        }
+        replayLog(store);
+        loaded = true;
+    }
+
+    private static void add(ExpenseStore store, Expense expense) {
+        store.add(ExpenseStore.parseEpochDay(expense.getDate()),
+            ExpenseStore.storedCents(expense.getAmount()), expense.getCategory());
+    }
+
+    private void replayLog(ExpenseStore store) throws IOException {
+        logRecords = 0;
+        long validLength = 0;
+        boolean current = false;
+        if (Files.exists(logFile)) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(logFile)))) {
+                if (in.readInt() == LOG_MAGIC && in.readLong() == generation) {
+                    current = true;
+                    validLength = LOG_HEADER_SIZE;
+                    byte[] payload;
+                    while ((payload = readRecord(in)) != null) {
+                        try {
+                            add(store, decode(payload));
+                        } catch (DateTimeException | IllegalArgumentException e) {
+                            // The checksum matched, so this is no torn tail
+                            throw new IOException("Invalid expense in journal " + logFile, e);
+                        }
+                        validLength += 8 + payload.length;
+                        logRecords++;
+                    }
+                }
+            } catch (EOFException e) {
+                // Torn header; treated as an empty log below
+            }
+        }
+        if (current) {
+            // Drop a torn tail left by a crash mid-append
+            openLog(FileChannel.open(logFile, StandardOpenOption.WRITE));
+            logChannel.truncate(validLength);
+            logChannel.position(validLength);
+        } else {
+            resetLog();
+        }
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > 64 * 1024) {
+            return null;
+        }
+        try {
+            int crc = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return crc == checksum(payload) ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // Buffers one record per expense; nothing reaches the file before flush
+    public synchronized void write(List<Expense> expenses) throws IOException {
+        checkOpen();
+        for (Expense expense : expenses) {
+            byte[] payload = encode(expense);
+            log.writeInt(payload.length);
+            log.writeInt(checksum(payload));
+            log.write(payload);
+            logRecords++;
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        log.flush();
+    }
+
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        log.flush();
+        logChannel.force(false);
+    }
+
+    // A checkpoint only writes the logged rows, so a fixed log length keeps
+    // both its cost and the replay on startup bounded
+    public synchronized boolean shouldCheckpoint() {
+        return logRecords >= CHECKPOINT_RECORDS;
+    }
+
+    // Makes the first `rows` rows of the store the snapshot and starts an
+    // empty log. Records written before the call must be exactly those
+    // rows' records; the store may meanwhile grow past `rows`.
+    public synchronized void checkpoint(ExpenseStore store, int rows) throws IOException {
+        if (!loaded) {
+            throw new IOException("Journal " + logFile + " was not loaded");
+        }
+        long next = generation + 1;
+        segments.checkpoint(store, rows, next);
+        generation = next;
+        resetLog();
+    }
+
+    // One step of segment compaction; returns whether there may be more
+    public synchronized boolean compact(ExpenseStore store) throws IOException {
+        return segments.compact(store, ExpenseStore.monthKey((int) LocalDate.now().toEpochDay()));
+    }
+
+    private void resetLog() throws IOException {
+        close();
+        openLog(FileChannel.open(logFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        log.writeInt(LOG_MAGIC);
+        log.writeLong(generation);
+        log.flush();
+        logRecords = 0;
+    }
+
+    private void checkOpen() throws IOException {
+        if (log == null) {
+            throw new IOException("Journal " + logFile + " is not open");
+        }
+    }
+
+    private void openLog(FileChannel channel) {
+        logChannel = channel;
+        log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            try {
+                log.close();
+            } finally {
+                log = null;
+                logChannel = null;
+            }
+        }
+    }
+
+    private static byte[] encode(Expense expense) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeDouble(expense.getAmount());
+        out.writeUTF(expense.getCategory());
+        out.writeUTF(expense.getDate());
+        return bytes.toByteArray();
+    }
+
+    private static Expense decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        return new Expense(in.readDouble(), in.readUTF(), in.readUTF());
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -1,15 +1,57 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
-public class ExpenseManager {
-    private List<Expense> expenses;
-    private static final String DATA_FILE = "expenses.dat";
+// Safe for any number of concurrent readers and writers. Writers take
+// writerLock one at a time and do their slow work under it (appending to
+// the store, sorting a batch into the date index) without blocking anyone
+// else. Disk writes and checkpoints happen on the JournalWriter thread.
+// Only the final step that publishes the new rows to readers, updating
+// the aggregates, the amount sketches, the date index and the visible row
+// count, runs under the view lock's short write lock.
+//
+// Queries read optimistically: they take a StampedLock stamp, read without
+// locking and keep the result if no publish happened meanwhile; otherwise
+// they retry under the read lock. Stored rows never change, so row
+// accessors and the list returned by getAllExpenses need no lock at all.
+//
+// Every add is also published to subscribers as an ExpenseChange, still
+// under writerLock so they see changes in the order they happened.
+public class ExpenseManager implements AutoCloseable {
+    private final ExpenseStore store = new ExpenseStore();
+    private final ExpenseAggregates aggregates = new ExpenseAggregates();
+    private final ExpenseSketches sketches = new ExpenseSketches();
+    private final DateIndex dateIndex = new DateIndex();
+    private final CategoryRegistry categories = new CategoryRegistry();
+    private final LedgerMetrics metrics;
+    private final ExpenseJournal journal;
+    private final JournalWriter writer;
+    private final ExpenseChangeFeed changes = new ExpenseChangeFeed();
+    private final Path directory;
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final StampedLock viewLock = new StampedLock();
+    // Rows and categories readers may see; written under the view lock
+    private volatile int visibleRows;
+    private int visibleCategories;
+    private static final String SEGMENT_DIRECTORY = "expenses.segments";
+    private static final String DATA_FILE = "expenses.ledger";
+    private static final String LEGACY_DATA_FILE = "expenses.dat";
+    private static final String JOURNAL_FILE = "expenses.log";
+    private static final int INDEX_SCAN_FRACTION = 8;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-    private static final Set<String> DEFAULT_CATEGORIES = new HashSet<>(Arrays.asList(
+    private static final Set<String> DEFAULT_CATEGORIES = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
         "Groceries",
         "Transportation",
         "Entertainment",
@@ -18,54 +60,259 @@ public class ExpenseManager {
         "Dining Out",
         "Shopping",
         "Education"
-    ));
-
-    public ExpenseManager() {
-        expenses = loadExpenses();
-        initializeDefaultCategories();
-    }
-
-    private void initializeDefaultCategories() {
-        if (expenses.isEmpty()) {
-            // Add a small initial expense for each category
-            LocalDate today = LocalDate.now();
-            DEFAULT_CATEGORIES.forEach(category -> {
-                try {
-                    addExpense(0.01, category, today.format(DATE_FORMATTER));
-                } catch (IllegalArgumentException e) {
-                    // Ignore any validation errors during initialization
+    )));
+
+    // Ledger in the working directory. -Dexpenses.durability=sync, buffered
+    // or a sync interval in milliseconds picks the durability (default buffered).
+    public ExpenseManager() throws IOException {
+        this(Paths.get(""), defaultDurability());
+    }
+
+    // Keeps the ledger files in the given directory instead of the working directory
+    public ExpenseManager(Path directory) throws IOException {
+        this(directory, Durability.BUFFERED);
+    }
+
+    // Opens the ledger in the working directory on a thread of its own, so
+    // the caller can show something while it loads. The future fails with
+    // the constructor's IOException if the ledger cannot be read.
+    public static CompletableFuture<ExpenseManager> openAsync() {
+        return openAsync(Paths.get(""), defaultDurability());
+    }
+
+    public static CompletableFuture<ExpenseManager> openAsync(Path directory, Durability durability) {
+        CompletableFuture<ExpenseManager> opened = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                opened.complete(new ExpenseManager(directory, durability));
+            } catch (IOException | RuntimeException e) {
+                opened.completeExceptionally(e);
+            }
+        }, "ledger-open").start();
+        return opened;
+    }
+
+    private static Durability defaultDurability() {
+        return Durability.parse(System.getProperty("expenses.durability", "buffered"));
+    }
+
+    // Throws if the ledger's files cannot be read. Nothing is written then,
+    // so a ledger that failed to open is left as it was for another try.
+    public ExpenseManager(Path directory, Durability durability) throws IOException {
+        this.directory = directory;
+        journal = new ExpenseJournal(directory.resolve(SEGMENT_DIRECTORY), directory.resolve(DATA_FILE),
+            directory.resolve(JOURNAL_FILE));
+        metrics = new LedgerMetrics(directory, directory.resolve(SEGMENT_DIRECTORY), directory.resolve(JOURNAL_FILE),
+            () -> visibleRows, () -> visibleCategories);
+        // Suggested before they are used, and spelled this way even if the
+        // ledger uses another case
+        DEFAULT_CATEGORIES.forEach(categories::register);
+        long start = System.nanoTime();
+        loadExpenses();
+        metrics.record(LedgerMetrics.Operation.OPEN, start);
+        // A new ledger needs nothing written beyond the empty journal the
+        // load created; the default categories are already suggested
+        writer = new JournalWriter(journal, store, store.size(), durability, metrics);
+        metrics.start();
+    }
+
+    public Set<String> getDefaultCategories() {
+        return DEFAULT_CATEGORIES;
+    }
+    // Returns the row number of the stored expense. It is visible to queries
+    // on return and written to disk in the background.
+    public int addExpense(double amount, String category, String date) throws IllegalArgumentException {
+        return add(amount, category, date, null);
+    }
+
+    // Same as addExpense; the future completes with the row number once the
+    // expense is durable under this ledger's Durability, or with the
+    // IOException that kept it from being saved
+    public CompletableFuture<Integer> addExpenseAsync(double amount, String category, String date)
+            throws IllegalArgumentException {
+        CompletableFuture<Integer> durable = new CompletableFuture<>();
+        add(amount, category, date, durable);
+        return durable;
+    }
+
+    private int add(double amount, String category, String date, CompletableFuture<Integer> durable) {
+        long start = System.nanoTime();
+        LocalDate parsed;
+        try {
+            parsed = validateDate(date);
+            validateAmount(amount);
+            validateCategory(category);
+        } catch (IllegalArgumentException e) {
+            metrics.rowsRejected(1);
+            throw e;
+        }
+
+        int row;
+        writerLock.lock();
+        try {
+            checkTotal(ExpenseStore.toCents(amount));
+            row = store.add((int) parsed.toEpochDay(), ExpenseStore.toCents(amount), category);
+            CompletableFuture<Void> written = writer.append(
+                Collections.singletonList(new Expense(amount, category, date)));
+            if (durable != null) {
+                settle(written, durable, row);
+            }
+            ExpenseChange change = null;
+            long stamp = viewLock.writeLock();
+            try {
+                aggregates.add(store.epochDay(row), store.cents(row), store.categoryId(row));
+                sketches.add(store.epochDay(row), store.cents(row), store.categoryId(row), row);
+                dateIndex.add(store.epochDay(row), row);
+                if (changes.hasSubscribers()) {
+                    IntLongMap month = new IntLongMap(1);
+                    month.add(ExpenseStore.monthKey(store.epochDay(row)), store.cents(row));
+                    change = describe(ExpenseChange.Type.ADDED, row, store.cents(row), month);
                 }
-            });
-            // Remove the initial expenses to keep the list clean
-            expenses.clear();
-            saveExpenses();
+                publish();
+            } finally {
+                viewLock.unlockWrite(stamp);
+            }
+            // Still under the writer lock, so subscribers see changes in order
+            if (change != null) {
+                changes.publish(change);
+            }
+        } finally {
+            writerLock.unlock();
         }
+        metrics.rowsAdded(1);
+        metrics.record(LedgerMetrics.Operation.ADD, start);
+        return row;
     }
 
-    public Set<String> getDefaultCategories() {
-        return new HashSet<>(DEFAULT_CATEGORIES);
+    // Validates all rows in parallel, stores the valid ones and commits them
+    // to the journal as one write. Errors refer to list positions.
+    public ImportResult addExpenses(List<Expense> batch) {
+        return add(batch, null);
     }
-    public void addExpense(double amount, String category, String date) throws IllegalArgumentException {
-        validateDate(date);
-        validateAmount(amount);
-        validateCategory(category);
-        
-        expenses.add(new Expense(amount, category, date));
-        saveExpenses();
+
+    // Same as addExpenses; the future completes once the added rows are durable
+    public CompletableFuture<ImportResult> addExpensesAsync(List<Expense> batch) {
+        CompletableFuture<ImportResult> durable = new CompletableFuture<>();
+        add(batch, durable);
+        return durable;
     }
 
-    private void validateDate(String date) throws IllegalArgumentException {
+    private ImportResult add(List<Expense> batch, CompletableFuture<ImportResult> durable) {
+        long start = System.nanoTime();
+        int count = batch.size();
+        int[] days = new int[count];
+        String[] errors = new String[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            Expense expense = batch.get(i);
+            try {
+                if (expense == null) {
+                    throw new IllegalArgumentException("Expense cannot be null");
+                }
+                days[i] = (int) validateDate(expense.getDate()).toEpochDay();
+                validateAmount(expense.getAmount());
+                validateCategory(expense.getCategory());
+            } catch (IllegalArgumentException e) {
+                errors[i] = e.getMessage();
+            }
+        });
+
+        ImportResult result = new ImportResult();
+        List<Expense> accepted = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (errors[i] != null) {
+                result.addError(i, errors[i]);
+            } else {
+                accepted.add(batch.get(i));
+            }
+        }
+
+        // At most Integer.MAX_VALUE amounts of at most MAX_CENTS each
+        long batchCents = 0;
+        for (Expense expense : accepted) {
+            batchCents += ExpenseStore.toCents(expense.getAmount());
+        }
+
+        writerLock.lock();
         try {
-            LocalDate.parse(date, DATE_FORMATTER);
+            checkTotal(batchCents);
+            int firstRow = store.size();
+            for (int i = 0; i < count; i++) {
+                if (errors[i] == null) {
+                    Expense expense = batch.get(i);
+                    store.add(days[i], ExpenseStore.toCents(expense.getAmount()), expense.getCategory());
+                }
+            }
+            ExpenseAggregates added = new ExpenseAggregates();
+            added.addRows(store, firstRow, store.size());
+            ExpenseSketches addedSketches = new ExpenseSketches();
+            addedSketches.addRows(store, firstRow, store.size());
+            long[] merged = dateIndex.mergeRows(store, firstRow, store.size());
+            result.addAdded(accepted.size());
+            CompletableFuture<Void> written = writer.append(accepted);
+            if (durable != null) {
+                settle(written, durable, result);
+            }
+            ExpenseChange change = null;
+            long stamp = viewLock.writeLock();
+            try {
+                aggregates.addAll(added);
+                sketches.addAll(addedSketches);
+                dateIndex.install(merged, store.size());
+                if (store.size() > firstRow && changes.hasSubscribers()) {
+                    change = describe(ExpenseChange.Type.BATCH_ADDED, firstRow, added.total(), added.monthTotals());
+                }
+                publish();
+            } finally {
+                viewLock.unlockWrite(stamp);
+            }
+            if (change != null) {
+                changes.publish(change);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        metrics.rowsAdded(result.getAdded());
+        metrics.rowsRejected(result.getErrorCount());
+        metrics.record(LedgerMetrics.Operation.ADD_BATCH, start);
+        return result;
+    }
+
+    // New amounts are capped at MAX_CENTS, so only rows of older files can
+    // bring the ledger total this close to overflowing; the add is refused
+    // before anything is stored. Call under writerLock.
+    private void checkTotal(long addedCents) throws IllegalArgumentException {
+        if (aggregates.total() > Long.MAX_VALUE - addedCents) {
+            throw new IllegalArgumentException("The ledger total cannot grow any larger");
+        }
+    }
+
+    private static <T> void settle(CompletableFuture<Void> written, CompletableFuture<T> durable, T value) {
+        written.whenComplete((ignored, error) -> {
+            if (error != null) {
+                durable.completeExceptionally(error);
+            } else {
+                durable.complete(value);
+            }
+        });
+    }
+
+    private LocalDate validateDate(String date) throws IllegalArgumentException {
+        if (date == null) {
+            throw new IllegalArgumentException("Date cannot be empty");
+        }
+        try {
+            LocalDate parsed = LocalDate.parse(date, DATE_FORMATTER);
+            if (parsed.getYear() > 9999) {
+                throw new IllegalArgumentException("Invalid date format. Please use YYYY-MM-DD");
+            }
+            return parsed;
         } catch (DateTimeParseException e) {
             throw new IllegalArgumentException("Invalid date format. Please use YYYY-MM-DD");
         }
     }
 
     private void validateAmount(double amount) throws IllegalArgumentException {
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount must be greater than 0");
-        }
+        ExpenseStore.validCents(amount);
     }
 
     private void validateCategory(String category) throws IllegalArgumentException {
@@ -74,82 +321,499 @@ public class ExpenseManager {
         }
     }
 
+    // Ignores case; sums the running totals of each spelling of category
     public double getTotalByCategory(String category) {
-        return expenses.stream()
-                .filter(e -> e.getCategory().equalsIgnoreCase(category))
-                .mapToDouble(Expense::getAmount)
-                .sum();
+        return ExpenseStore.toAmount(getTotalCentsByCategory(category));
+    }
+
+    public long getTotalCentsByCategory(String category) {
+        if (category == null || category.trim().isEmpty()) {
+            return 0;
+        }
+        long start = metrics.startLookup();
+        long total = read(() -> {
+            int key = categories.find(category);
+            long cents = 0;
+            if (key >= 0) {
+                for (int id : categories.storeIds(key)) {
+                    cents += aggregates.categoryTotal(id);
+                }
+            }
+            return cents;
+        });
+        metrics.record(LedgerMetrics.Operation.LOOKUP, start);
+        return total;
+    }
+
+    // Up to limit category names starting with prefix (ignoring case), the
+    // most used first and then by name. Spellings that differ only in case
+    // count as one category, suggested as first seen; the default
+    // categories are included before they are used.
+    public List<String> suggestCategories(String prefix, int limit) {
+        String typed = prefix == null ? "" : prefix;
+        long start = metrics.startLookup();
+        List<String> suggestions = read(() -> {
+            int[] keys = categories.keysWithPrefix(typed);
+            long[] uses = new long[keys.length];
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                order[i] = i;
+                for (int id : categories.storeIds(keys[i])) {
+                    uses[i] += aggregates.categoryRows(id);
+                }
+            }
+            // Keys come in name order, so equal counts stay in name order
+            Arrays.sort(order, (a, b) -> Long.compare(uses[b], uses[a]));
+            List<String> names = new ArrayList<>(Math.min(limit, keys.length));
+            for (int i = 0; i < keys.length && names.size() < limit; i++) {
+                names.add(categories.name(keys[order[i]]));
+            }
+            return names;
+        });
+        metrics.record(LedgerMetrics.Operation.LOOKUP, start);
+        return suggestions;
     }
 
     public double getTotalByDate(String date) {
-        return expenses.stream()
-                .filter(e -> e.getDate().equals(date))
-                .mapToDouble(Expense::getAmount)
-                .sum();
+        return ExpenseStore.toAmount(getTotalCentsByDate(date));
+    }
+
+    public long getTotalCentsByDate(String date) {
+        int day;
+        try {
+            day = ExpenseStore.parseEpochDay(date);
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+        long start = metrics.startLookup();
+        long total = read(() -> aggregates.dayTotal(day));
+        metrics.record(LedgerMetrics.Operation.LOOKUP, start);
+        return total;
     }
 
     public Map<String, Double> getAllCategoryTotals() {
-        return expenses.stream()
-                .collect(Collectors.groupingBy(
-                    Expense::getCategory,
-                    Collectors.summingDouble(Expense::getAmount)
-                ));
+        return query(ExpenseQuery.all().groupBy(ExpenseQuery.GroupBy.CATEGORY)).getTotals();
     }
 
     public Map<String, Double> getMonthlyTotals() {
-        return expenses.stream()
-                .collect(Collectors.groupingBy(
-                    e -> e.getDate().substring(0, 7),
-                    Collectors.summingDouble(Expense::getAmount)
-                ));
+        return query(ExpenseQuery.all().groupBy(ExpenseQuery.GroupBy.MONTH)).getTotals();
+    }
+
+    // Runs a report in one pass over the rows it can match: those in its
+    // date range, found through the date index, when the range holds at
+    // most 1/INDEX_SCAN_FRACTION of the rows, and all rows otherwise (a
+    // linear scan beats visiting that many rows in date order). Large scans
+    // run in parallel (see QueryScan). Queries the running totals
+    // already answer, those without date or amount filters that group by
+    // category or not at all (or by month or day over every category), do
+    // not touch the rows.
+    public QueryResult query(ExpenseQuery query) {
+        long start = System.nanoTime();
+        QueryResult result = run(query);
+        metrics.record(LedgerMetrics.Operation.QUERY, start);
+        return result;
+    }
+
+    private QueryResult run(ExpenseQuery query) {
+        if (!query.hasDateRange() && !query.hasAmountBounds()) {
+            QueryResult result = read(() -> fromAggregates(query));
+            if (result != null) {
+                return result;
+            }
+        }
+        int[] rows = !query.hasDateRange() ? null : read(() ->
+            dateIndex.countBetween(query.getStartDay(), query.getEndDay()) > visibleRows / INDEX_SCAN_FRACTION
+                ? null
+                : dateIndex.rowsBetween(query.getStartDay(), query.getEndDay()));
+        // Read after the rows above, so every category they use is counted
+        int rowCount = visibleRows;
+        int categoryCount = visibleCategories;
+        return QueryScan.run(store, query, categoryMask(query, categoryCount), categoryCount, rows, rowCount);
+    }
+
+    private QueryResult fromAggregates(ExpenseQuery query) {
+        boolean[] mask = categoryMask(query, visibleCategories);
+        ExpenseQuery.GroupBy groupBy = query.getGroupBy();
+        if (mask != null && groupBy != ExpenseQuery.GroupBy.NONE && groupBy != ExpenseQuery.GroupBy.CATEGORY) {
+            return null;
+        }
+        long total = 0;
+        int count = 0;
+        Map<String, Long> totals = new HashMap<>();
+        switch (groupBy) {
+            case NONE:
+            case CATEGORY:
+                for (int id = 0; id < visibleCategories; id++) {
+                    if ((mask == null || mask[id]) && aggregates.categoryRows(id) > 0) {
+                        total += aggregates.categoryTotal(id);
+                        count += aggregates.categoryRows(id);
+                        if (groupBy == ExpenseQuery.GroupBy.CATEGORY) {
+                            totals.put(store.categoryName(id), aggregates.categoryTotal(id));
+                        }
+                    }
+                }
+                break;
+            case MONTH:
+                aggregates.monthTotals().forEach((month, cents) ->
+                    totals.put(ExpenseStore.formatMonth(month), cents));
+                total = aggregates.total();
+                count = visibleRows;
+                break;
+            case DAY:
+                aggregates.dayTotals().forEach((day, cents) ->
+                    totals.put(ExpenseStore.formatDate(day), cents));
+                total = aggregates.total();
+                count = visibleRows;
+                break;
+            default:
+                return null;
+        }
+        return new QueryResult(groupBy, total, count, totals, null);
+    }
+
+    // Category ids the query selects, ignoring case; null when it selects all
+    private boolean[] categoryMask(ExpenseQuery query, int categoryCount) {
+        Set<String> names = query.getCategories();
+        if (names == null) {
+            return null;
+        }
+        boolean[] mask = new boolean[categoryCount];
+        for (String name : names) {
+            int key = categories.find(name);
+            if (key >= 0) {
+                for (int id : categories.storeIds(key)) {
+                    // The registry may already hold categories published
+                    // after categoryCount was read
+                    if (id < categoryCount) {
+                        mask[id] = true;
+                    }
+                }
+            }
+        }
+        return mask;
+    }
+
+    // Distribution of the category's amounts, every spelling of it counted
+    // (ignoring case); empty if it has no expenses. Reads the category's
+    // sketch, so the cost does not depend on how many expenses it has.
+    public AmountSummary getCategorySummary(String category) {
+        long start = metrics.startLookup();
+        List<AmountSketch> found = read(() -> {
+            List<AmountSketch> copies = new ArrayList<>();
+            int key = category == null ? -1 : categories.find(category);
+            if (key >= 0) {
+                for (int id : categories.storeIds(key)) {
+                    AmountSketch sketch = sketches.category(id);
+                    if (sketch != null) {
+                        copies.add(sketch.copy());
+                    }
+                }
+            }
+            return copies;
+        });
+        metrics.record(LedgerMetrics.Operation.LOOKUP, start);
+        return new AmountSummary(found, store::get);
+    }
+
+    public AmountSummary getMonthSummary(String month) {
+        return getMonthSummary(month, month);
+    }
+
+    // Distribution of the amounts from firstMonth to lastMonth ("yyyy-MM",
+    // inclusive), from one sketch per month
+    public AmountSummary getMonthSummary(String firstMonth, String lastMonth) {
+        int first = validateMonth(firstMonth);
+        int last = validateMonth(lastMonth);
+        long start = metrics.startLookup();
+        List<AmountSketch> found = read(() -> {
+            List<AmountSketch> copies = new ArrayList<>();
+            for (AmountSketch sketch : sketches.months(first, last)) {
+                copies.add(sketch.copy());
+            }
+            return copies;
+        });
+        metrics.record(LedgerMetrics.Operation.LOOKUP, start);
+        return new AmountSummary(found, store::get);
+    }
+
+    // Whether the row's amount is unusually large for its category as it
+    // stands now, by AmountSummary's rule
+    public boolean isOutlier(int row) {
+        checkRow(row);
+        return read(() -> {
+            long cents = store.cents(row);
+            AmountSketch moments = new AmountSketch();
+            int key = categories.find(store.category(row));
+            if (key >= 0) {
+                for (int id : categories.storeIds(key)) {
+                    AmountSketch sketch = sketches.category(id);
+                    if (sketch != null) {
+                        moments.addMoments(sketch);
+                    }
+                }
+            }
+            return moments.isOutlier(cents);
+        });
+    }
+
+    // Month key of a "yyyy-MM" month
+    private static int validateMonth(String month) throws IllegalArgumentException {
+        if (month != null) {
+            try {
+                YearMonth parsed = YearMonth.parse(month);
+                return parsed.getYear() * 12 + parsed.getMonthValue() - 1;
+            } catch (DateTimeParseException e) {
+                // Reported below
+            }
+        }
+        throw new IllegalArgumentException("Invalid month format. Please use YYYY-MM");
     }
 
     public List<Expense> getExpensesByDateRange(String startDate, String endDate) {
-        validateDate(startDate);
-        validateDate(endDate);
-        LocalDate start = LocalDate.parse(startDate, DATE_FORMATTER);
-        LocalDate end = LocalDate.parse(endDate, DATE_FORMATTER);
+        int[] rows = getRowsByDateRange(startDate, endDate);
+        List<Expense> result = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            result.add(store.get(row));
+        }
+        return result;
+    }
 
-        return expenses.stream()
-                .filter(e -> {
-                    LocalDate expenseDate = LocalDate.parse(e.getDate(), DATE_FORMATTER);
-                    return !expenseDate.isBefore(start) && !expenseDate.isAfter(end);
-                })
-                .sorted(Comparator.comparing(Expense::getDate))
-                .collect(Collectors.toList());
+    // Row numbers of the expenses in the range, in date order, for callers
+    // that read them through the row accessors instead of as Expense objects
+    public int[] getRowsByDateRange(String startDate, String endDate) {
+        int start = (int) validateDate(startDate).toEpochDay();
+        int end = (int) validateDate(endDate).toEpochDay();
+        long started = System.nanoTime();
+        int[] rows = read(() -> dateIndex.rowsBetween(start, end));
+        metrics.record(LedgerMetrics.Operation.DATE_RANGE, started);
+        return rows;
     }
 
     public double getTotalExpenses() {
-        return expenses.stream()
-                .mapToDouble(Expense::getAmount)
-                .sum();
+        return ExpenseStore.toAmount(getTotalExpensesCents());
+    }
+
+    public long getTotalExpensesCents() {
+        long start = metrics.startLookup();
+        long total = read(aggregates::total);
+        metrics.record(LedgerMetrics.Operation.LOOKUP, start);
+        return total;
     }
 
+    public int getExpenseCount() {
+        return visibleRows;
+    }
+
+    // Row accessors for views that read the ledger in place; rows are
+    // numbered in insertion order from 0 to getExpenseCount() - 1
+    public long getAmountCents(int row) {
+        checkRow(row);
+        return store.cents(row);
+    }
+
+    public String getCategory(int row) {
+        checkRow(row);
+        return store.category(row);
+    }
+
+    public String getDate(int row) {
+        checkRow(row);
+        return ExpenseStore.formatDate(store.epochDay(row));
+    }
+
+    public int getEpochDay(int row) {
+        checkRow(row);
+        return store.epochDay(row);
+    }
+
+    // Rows past visibleRows may still be half written by an add
+    private void checkRow(int row) throws IllegalArgumentException {
+        if (row < 0 || row >= visibleRows) {
+            throw new IllegalArgumentException("Row out of range: " + row);
+        }
+    }
+
+    public int getRowInDateOrder(int position) throws IllegalArgumentException {
+        if (position < 0 || position >= visibleRows) {
+            throw new IllegalArgumentException("Position out of range: " + position);
+        }
+        return read(() -> dateIndex.rowAt(position));
+    }
+
+    // Read-only view of the rows stored when it was taken. Expenses are
+    // created as they are read; later adds do not show up in it.
     public List<Expense> getAllExpenses() {
-        return new ArrayList<>(expenses);
+        int rows = visibleRows;
+        return new AbstractList<Expense>() {
+            @Override
+            public Expense get(int row) {
+                if (row < 0 || row >= rows) {
+                    throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+                }
+                return store.get(row);
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
     }
 
     public List<String> getAllCategories() {
-        return expenses.stream()
-                .map(Expense::getCategory)
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        return read(() -> {
+            List<String> categories = new ArrayList<>(visibleCategories);
+            for (int id = 0; id < visibleCategories; id++) {
+                categories.add(store.categoryName(id));
+            }
+            Collections.sort(categories);
+            return categories;
+        });
     }
 
-    private List<Expense> loadExpenses() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-            return (List<Expense>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            return new ArrayList<>();
+    // Runs a query against the published view. A query that races a
+    // publish may see half-updated structures and even throw; its result is
+    // only used if the stamp is still valid, and it is rerun under the read
+    // lock otherwise.
+    private <T> T read(Supplier<T> query) {
+        long stamp = viewLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = query.get();
+                if (viewLock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Saw a publish in progress
+            }
+        }
+        stamp = viewLock.readLock();
+        try {
+            return query.get();
+        } finally {
+            viewLock.unlockRead(stamp);
         }
     }
 
-    private void saveExpenses() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            oos.writeObject(expenses);
+    // The change adding store rows [firstRow, size) with the given totals;
+    // call under the view lock once the aggregates include them
+    private ExpenseChange describe(ExpenseChange.Type type, int firstRow, long cents, IntLongMap monthCents) {
+        IntLongMap ledgerMonthCents = new IntLongMap(monthCents.size());
+        monthCents.forEach((month, value) -> ledgerMonthCents.add(month, aggregates.monthTotals().get(month)));
+        return new ExpenseChange(type, firstRow, store.size() - firstRow, cents, aggregates.total(), monthCents,
+            ledgerMonthCents, store.categoryCount(), store.categoryCount() > visibleCategories);
+    }
+
+    // Makes every stored row visible to readers; call under the view lock
+    // (or before the manager is shared)
+    private void publish() {
+        categories.update(store);
+        visibleCategories = store.categoryCount();
+        visibleRows = store.size();
+    }
+
+    private void loadExpenses() throws IOException {
+        try {
+            Path dataFile = directory.resolve(DATA_FILE);
+            Path legacyFile = directory.resolve(LEGACY_DATA_FILE);
+            if (!Files.exists(directory.resolve(SEGMENT_DIRECTORY)) && !Files.exists(dataFile)
+                    && Files.exists(legacyFile)) {
+                // The legacy file stays behind, so skipped rows can still be recovered from it
+                ImportResult converted = LedgerConverter.convert(legacyFile, dataFile);
+                if (converted.getErrorCount() > 0) {
+                    metrics.rowsRejected(converted.getErrorCount());
+                    System.err.println("Skipped " + converted.getErrorCount() + " unreadable expenses converting "
+                        + legacyFile + "; the file is kept");
+                }
+            }
+            journal.load(store);
+            try {
+                aggregates.rebuild(store);
+                sketches.rebuild(store);
+            } catch (ArithmeticException e) {
+                throw new IOException("The total of the ledger in " + directory + " overflows", e);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            metrics.recordError(LedgerMetrics.Operation.OPEN, e);
+            throw e;
+        }
+        dateIndex.rebuild(store);
+        publish();
+    }
+
+    // Moves every logged expense into the snapshot segments and starts a
+    // new, empty journal; returns once they are on disk. Adds and queries
+    // continue meanwhile.
+    public void checkpoint() throws IOException {
+        JournalWriter.await(saveExpenses());
+    }
+
+    // Merges the snapshot segments as far as compaction goes (the writer
+    // thread otherwise does this in the background when idle); returns
+    // once done
+    public void compact() throws IOException {
+        CompletableFuture<Void> done;
+        writerLock.lock();
+        try {
+            done = writer.compact();
+        } finally {
+            writerLock.unlock();
+        }
+        JournalWriter.await(done);
+    }
+
+    // Completes once every expense added before the call is durable
+    public CompletableFuture<Void> whenDurable() {
+        writerLock.lock();
+        try {
+            return writer.append(Collections.<Expense>emptyList());
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    public Durability getDurability() {
+        return writer.getDurability();
+    }
+
+    // Latencies and counters of this ledger; also published over JMX
+    public LedgerMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Called on the journal writer thread whenever expenses could not be
+    // saved; the default prints the stack trace
+    public void setWriteErrorListener(Consumer<IOException> listener) {
+        writer.setErrorListener(listener);
+    }
+
+    // Subscribes to the changes made from now on; each carries its first
+    // row, so the subscriber can tell which rows it has already seen.
+    // onComplete follows the last change once the ledger is closed.
+    // Changes are delivered on the common fork/join pool.
+    public void subscribe(ExpenseChangeFeed.Subscriber subscriber) {
+        changes.subscribe(subscriber);
+    }
+
+    // Waits for all queued writes, then closes the journal
+    @Override
+    public void close() throws IOException {
+        writerLock.lock();
+        try {
+            writer.close();
+        } finally {
+            changes.close();
+            writerLock.unlock();
+            metrics.stop();
+        }
+    }
+
+    private CompletableFuture<Void> saveExpenses() {
+        writerLock.lock();
+        try {
+            return writer.checkpoint(store.size());
+        } finally {
+            writerLock.unlock();
         }
     }
 }
\ No newline at end of file
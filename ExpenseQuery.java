@@ -0,0 +1,119 @@
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// A report over the ledger: which expenses count (date range, categories,
+// amount bounds, all inclusive) and how their totals are grouped.
+// Immutable; each method returns a changed copy, e.g.
+//
+//   ExpenseQuery.all().between("2024-01-01", "2024-12-31")
+//       .inCategories("Groceries", "Dining Out").groupBy(ExpenseQuery.GroupBy.MONTH)
+//
+// ExpenseManager.query runs it in one pass over the matching rows.
+public final class ExpenseQuery {
+    public enum GroupBy { NONE, CATEGORY, MONTH, DAY, CATEGORY_MONTH }
+
+    private static final ExpenseQuery ALL = new ExpenseQuery(Integer.MIN_VALUE, Integer.MAX_VALUE,
+        null, Long.MIN_VALUE, Long.MAX_VALUE, GroupBy.NONE);
+
+    private final int startDay;
+    private final int endDay;
+    private final Set<String> categories;
+    private final long minCents;
+    private final long maxCents;
+    private final GroupBy groupBy;
+
+    private ExpenseQuery(int startDay, int endDay, Set<String> categories, long minCents, long maxCents,
+                         GroupBy groupBy) {
+        this.startDay = startDay;
+        this.endDay = endDay;
+        this.categories = categories;
+        this.minCents = minCents;
+        this.maxCents = maxCents;
+        this.groupBy = groupBy;
+    }
+
+    public static ExpenseQuery all() {
+        return ALL;
+    }
+
+    public ExpenseQuery between(String startDate, String endDate) throws IllegalArgumentException {
+        return new ExpenseQuery(parseDate(startDate), parseDate(endDate), categories, minCents, maxCents, groupBy);
+    }
+
+    // Category names match ignoring case, like getTotalByCategory
+    public ExpenseQuery inCategories(String... names) {
+        return inCategories(Arrays.asList(names));
+    }
+
+    public ExpenseQuery inCategories(Collection<String> names) {
+        Set<String> set = new LinkedHashSet<>();
+        for (String name : names) {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Category cannot be empty");
+            }
+            set.add(name.trim());
+        }
+        return new ExpenseQuery(startDay, endDay, Collections.unmodifiableSet(set), minCents, maxCents, groupBy);
+    }
+
+    public ExpenseQuery amountBetween(double min, double max) throws IllegalArgumentException {
+        long low = ExpenseStore.toCents(min);
+        long high = ExpenseStore.toCents(max);
+        if (low > high) {
+            throw new IllegalArgumentException("Minimum amount is greater than the maximum");
+        }
+        return new ExpenseQuery(startDay, endDay, categories, low, high, groupBy);
+    }
+
+    public ExpenseQuery groupBy(GroupBy groupBy) {
+        if (groupBy == null) {
+            throw new IllegalArgumentException("Grouping cannot be null");
+        }
+        return new ExpenseQuery(startDay, endDay, categories, minCents, maxCents, groupBy);
+    }
+
+    private static int parseDate(String date) {
+        try {
+            return ExpenseStore.parseEpochDay(date);
+        } catch (DateTimeParseException | NullPointerException e) {
+            throw new IllegalArgumentException("Invalid date format. Please use YYYY-MM-DD");
+        }
+    }
+
+    public boolean hasDateRange() {
+        return startDay != Integer.MIN_VALUE || endDay != Integer.MAX_VALUE;
+    }
+
+    public boolean hasAmountBounds() {
+        return minCents != Long.MIN_VALUE || maxCents != Long.MAX_VALUE;
+    }
+
+    public int getStartDay() {
+        return startDay;
+    }
+
+    public int getEndDay() {
+        return endDay;
+    }
+
+    // null when every category counts
+    public Set<String> getCategories() {
+        return categories;
+    }
+
+    public long getMinCents() {
+        return minCents;
+    }
+
+    public long getMaxCents() {
+        return maxCents;
+    }
+
+    public GroupBy getGroupBy() {
+        return groupBy;
+    }
+}
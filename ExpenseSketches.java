@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// An AmountSketch per category id and per month, kept in step with the
+// store on every add like ExpenseAggregates, so percentile, largest
+// expense and outlier queries read a few bounded sketches instead of
+// sorting rows. Memory grows with the number of categories and months,
+// not of rows.
+//
+// Not thread-safe; ExpenseManager only changes it under its view lock.
+// A bulk add builds its sketches in a separate instance first and merges
+// them in with addAll, which costs one merge per category and month it
+// touches.
+public class ExpenseSketches {
+    private AmountSketch[] categories = new AmountSketch[16];
+    // Month key -> index in months plus 1
+    private final IntLongMap monthSlots = new IntLongMap();
+    private AmountSketch[] months = new AmountSketch[16];
+    private int monthCount;
+
+    public void add(int epochDay, long cents, int categoryId, int row) {
+        categorySketch(categoryId).add(cents, row);
+        monthSketch(ExpenseStore.monthKey(epochDay)).add(cents, row);
+    }
+
+    public void addRows(ExpenseStore store, int fromRow, int toRow) {
+        for (int row = fromRow; row < toRow; row++) {
+            add(store.epochDay(row), store.cents(row), store.categoryId(row), row);
+        }
+    }
+
+    public void addAll(ExpenseSketches other) {
+        for (int id = 0; id < other.categories.length; id++) {
+            if (other.categories[id] != null) {
+                categorySketch(id).addAll(other.categories[id]);
+            }
+        }
+        other.monthSlots.forEach((month, slot) -> monthSketch(month).addAll(other.months[(int) slot - 1]));
+    }
+
+    // One pass over the store. Rows mostly come in date order, so the
+    // month is only looked up when the day changes.
+    public void rebuild(ExpenseStore store) {
+        clear();
+        int lastDay = 0;
+        AmountSketch month = null;
+        for (int chunk = 0; chunk < store.chunkCount(); chunk++) {
+            int[] dayChunk = store.dayChunk(chunk);
+            long[] centChunk = store.centChunk(chunk);
+            int[] categoryChunk = store.categoryChunk(chunk);
+            int first = chunk << ExpenseStore.CHUNK_BITS;
+            for (int i = 0; i < store.chunkLength(chunk); i++) {
+                if (month == null || dayChunk[i] != lastDay) {
+                    lastDay = dayChunk[i];
+                    month = monthSketch(ExpenseStore.monthKey(lastDay));
+                }
+                month.add(centChunk[i], first + i);
+                categorySketch(categoryChunk[i]).add(centChunk[i], first + i);
+            }
+        }
+        // Leaves nothing buffered for the first queries to sort
+        for (AmountSketch sketch : categories) {
+            if (sketch != null) {
+                sketch.digest().flush();
+            }
+        }
+        for (int i = 0; i < monthCount; i++) {
+            months[i].digest().flush();
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(categories, null);
+        Arrays.fill(months, null);
+        monthSlots.clear();
+        monthCount = 0;
+    }
+
+    private AmountSketch categorySketch(int categoryId) {
+        if (categoryId >= categories.length) {
+            categories = Arrays.copyOf(categories, Math.max(categories.length * 2, categoryId + 1));
+        }
+        AmountSketch sketch = categories[categoryId];
+        if (sketch == null) {
+            sketch = new AmountSketch();
+            categories[categoryId] = sketch;
+        }
+        return sketch;
+    }
+
+    private AmountSketch monthSketch(int monthKey) {
+        long slot = monthSlots.get(monthKey);
+        if (slot > 0) {
+            return months[(int) slot - 1];
+        }
+        if (monthCount == months.length) {
+            months = Arrays.copyOf(months, monthCount * 2);
+        }
+        AmountSketch sketch = new AmountSketch();
+        months[monthCount++] = sketch;
+        monthSlots.add(monthKey, monthCount);
+        return sketch;
+    }
+
+    // The category's sketch, or null if it has no rows
+    public AmountSketch category(int categoryId) {
+        AmountSketch[] sketches = categories;
+        return categoryId < sketches.length ? sketches[categoryId] : null;
+    }
+
+    // Sketches of the months with rows from firstMonth to lastMonth (month
+    // keys, inclusive), in no particular order
+    public List<AmountSketch> months(int firstMonth, int lastMonth) {
+        List<AmountSketch> found = new ArrayList<>();
+        if ((long) lastMonth - firstMonth < monthSlots.size()) {
+            for (int month = firstMonth; month <= lastMonth; month++) {
+                long slot = monthSlots.get(month);
+                if (slot > 0) {
+                    found.add(months[(int) slot - 1]);
+                }
+            }
+        } else {
+            AmountSketch[] sketches = months;
+            monthSlots.forEach((month, slot) -> {
+                if (month >= firstMonth && month <= lastMonth) {
+                    found.add(sketches[(int) slot - 1]);
+                }
+            });
+        }
+        return found;
+    }
+}
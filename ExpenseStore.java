@@ -0,0 +1,266 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// Column-oriented expense storage: one primitive array per field, split into
+// fixed-size chunks so growth never copies existing rows. Categories are
+// dictionary-encoded; each distinct (trimmed) category string gets a dense id.
+//
+// Appends need a single writer, but rows and category ids that a reader
+// learned about through a happens-before edge (ExpenseManager publishes them
+// under its view lock) may be read concurrently without locking: filled
+// slots are never written again, and the chunk directories and dictionary
+// are only ever replaced by complete copies through volatile fields. Every
+// category id below categoryCount() can be read the same way.
+public class ExpenseStore {
+    static final int CHUNK_BITS = 14;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // Largest amount of a new expense, 42,949,672.95: below 2^32 cents, so
+    // no int count of such rows can sum past Long.MAX_VALUE. Rows read back
+    // from files written before the limit may be larger; sums over them are
+    // checked instead (see MoneyKernels).
+    public static final long MAX_CENTS = (1L << 32) - 1;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private volatile int[][] days = new int[8][];
+    private volatile long[][] cents = new long[8][];
+    private volatile int[][] categoryIds = new int[8][];
+    private int size;
+
+    private volatile String[] categories = new String[16];
+    private volatile int categoryCount;
+    private final Map<String, Integer> categoryIndex = new HashMap<>();
+
+    public int add(int epochDay, long amountCents, String category) {
+        int row = size;
+        int chunk = ensureChunk(row >>> CHUNK_BITS);
+        int offset = row & CHUNK_MASK;
+        checkCents(amountCents);
+        int id = internCategory(category.trim());
+        days[chunk][offset] = epochDay;
+        cents[chunk][offset] = amountCents;
+        categoryIds[chunk][offset] = id;
+        size = row + 1;
+        return row;
+    }
+
+    // Bulk-appends rows read from a ledger file. Category ids must refer to
+    // names already interned, in order, through internCategory.
+    public void appendColumns(IntBuffer dayColumn, LongBuffer centColumn, IntBuffer categoryColumn, int count) {
+        for (int copied = 0; copied < count; ) {
+            int chunk = ensureChunk(size >>> CHUNK_BITS);
+            int offset = size & CHUNK_MASK;
+            int length = Math.min(count - copied, CHUNK_SIZE - offset);
+            dayColumn.get(days[chunk], offset, length);
+            centColumn.get(cents[chunk], offset, length);
+            categoryColumn.get(categoryIds[chunk], offset, length);
+            int[] ids = categoryIds[chunk];
+            long[] amounts = cents[chunk];
+            for (int i = offset; i < offset + length; i++) {
+                if (ids[i] < 0 || ids[i] >= categoryCount) {
+                    throw new IllegalArgumentException("Category id out of range: " + ids[i]);
+                }
+                checkCents(amounts[i]);
+            }
+            size += length;
+            copied += length;
+        }
+    }
+
+    // Grows the store to `rows` zero-filled rows for set() to fill in; used
+    // when loading segments, whose rows arrive out of order
+    public void extendTo(int rows) {
+        while (size < rows) {
+            ensureChunk(size >>> CHUNK_BITS);
+            size = Math.min(rows, (size | CHUNK_MASK) + 1);
+        }
+    }
+
+    public void set(int row, int epochDay, long amountCents, int categoryId) {
+        if (row < 0 || row >= size) {
+            throw new IllegalArgumentException("Row out of range: " + row);
+        }
+        if (categoryId < 0 || categoryId >= categoryCount) {
+            throw new IllegalArgumentException("Category id out of range: " + categoryId);
+        }
+        checkCents(amountCents);
+        int chunk = row >>> CHUNK_BITS;
+        int offset = row & CHUNK_MASK;
+        days[chunk][offset] = epochDay;
+        cents[chunk][offset] = amountCents;
+        categoryIds[chunk][offset] = categoryId;
+    }
+
+    // Stored amounts are never negative, which lets sums be checked for
+    // overflow once, on their total
+    private static void checkCents(long amountCents) {
+        if (amountCents < 0) {
+            throw new IllegalArgumentException("Amount in cents cannot be negative: " + amountCents);
+        }
+    }
+
+    private int ensureChunk(int chunk) {
+        if (chunk == days.length) {
+            int capacity = days.length * 2;
+            days = Arrays.copyOf(days, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            categoryIds = Arrays.copyOf(categoryIds, capacity);
+        }
+        if (days[chunk] == null) {
+            days[chunk] = new int[CHUNK_SIZE];
+            cents[chunk] = new long[CHUNK_SIZE];
+            categoryIds[chunk] = new int[CHUNK_SIZE];
+        }
+        return chunk;
+    }
+
+    public int internCategory(String category) {
+        Integer id = categoryIndex.get(category);
+        if (id == null) {
+            id = categoryCount;
+            String[] names = categories;
+            if (id == names.length) {
+                names = Arrays.copyOf(names, id * 2);
+            }
+            names[id] = category;
+            categories = names;
+            categoryCount++;
+            categoryIndex.put(category, id);
+        }
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int epochDay(int row) {
+        return days[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public long cents(int row) {
+        return cents[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public int categoryId(int row) {
+        return categoryIds[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public String category(int row) {
+        return categories[categoryId(row)];
+    }
+
+    public Expense get(int row) {
+        return new Expense(toAmount(cents(row)), category(row), formatDate(epochDay(row)));
+    }
+
+    // Chunk-level access for linear scans over the columns
+    public int chunkCount() {
+        return (size + CHUNK_MASK) >>> CHUNK_BITS;
+    }
+
+    public int chunkLength(int chunk) {
+        return Math.min(CHUNK_SIZE, size - (chunk << CHUNK_BITS));
+    }
+
+    public int[] dayChunk(int chunk) {
+        return days[chunk];
+    }
+
+    public long[] centChunk(int chunk) {
+        return cents[chunk];
+    }
+
+    public int[] categoryChunk(int chunk) {
+        return categoryIds[chunk];
+    }
+
+    public int categoryCount() {
+        return categoryCount;
+    }
+
+    public String categoryName(int id) {
+        return categories[id];
+    }
+
+    public int findCategory(String category) {
+        Integer id = categoryIndex.get(category);
+        return id == null ? -1 : id;
+    }
+
+    public void clear() {
+        days = new int[8][];
+        cents = new long[8][];
+        categoryIds = new int[8][];
+        size = 0;
+        categories = new String[16];
+        categoryCount = 0;
+        categoryIndex.clear();
+    }
+
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // The cents of an amount read back from a journal or legacy file, which
+    // is never rejected: it was accepted when it was written, by whatever
+    // rules applied then. Rounds like toCents; NaN, which the first version
+    // let through, becomes 0, as would a negative amount no version took.
+    public static long storedCents(double amount) {
+        return Math.max(0, toCents(amount));
+    }
+
+    // The cents of a new expense amount, which must be finite, round to at
+    // least one cent and be at most MAX_CENTS; every amount that enters a
+    // ledger from input is checked here
+    public static long validCents(double amount) throws IllegalArgumentException {
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Amount must be greater than 0");
+        }
+        long cents = toCents(amount);
+        if (cents < 1) {
+            throw new IllegalArgumentException("Amount must be at least 0.01");
+        }
+        if (cents > MAX_CENTS) {
+            throw new IllegalArgumentException("Amount must be at most 42949672.95");
+        }
+        return cents;
+    }
+
+    public static double toAmount(long amountCents) {
+        return amountCents / 100.0;
+    }
+
+    public static int parseEpochDay(String date) {
+        LocalDate parsed = LocalDate.parse(date.trim(), DATE_FORMATTER);
+        if (parsed.getYear() > 9999) {
+            throw new DateTimeParseException("Year out of range", date, 0);
+        }
+        return (int) parsed.toEpochDay();
+    }
+
+    public static String formatDate(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    // year * 12 + (month - 1), computed from the epoch day without allocating
+    public static int monthKey(int epochDay) {
+        long z = epochDay + 719468L;
+        long era = Math.floorDiv(z, 146097L);
+        long doe = z - era * 146097L;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    public static String formatMonth(int monthKey) {
+        return String.format("%04d-%02d", Math.floorDiv(monthKey, 12), Math.floorMod(monthKey, 12) + 1);
+    }
+}
@@ -0,0 +1,261 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+// Table model that reads rows straight from ExpenseManager and formats
+// only the cells the table asks for. Sorting by amount or category keeps a
+// single int[] of row ids; sorting by date walks the manager's date index.
+public class ExpenseTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    public static final int AMOUNT_COLUMN = 0;
+    public static final int CATEGORY_COLUMN = 1;
+    public static final int DATE_COLUMN = 2;
+    private static final String[] COLUMNS = {"Amount", "Category", "Date"};
+
+    private final ExpenseManager manager;
+    private int sortColumn = -1;
+    private boolean descending;
+    private int[] sortedRows;
+    private Map<String, Integer> categoryRanks;
+    // Scratch space of resort, kept between sorts with some room to grow
+    private long[] sortKeys = new long[0];
+    private long[] sortPacked = new long[0];
+    // Rows announced to the table so far; adds made on worker threads only
+    // become visible once rowAdded/rowsAdded runs on the EDT
+    private int rowCount;
+
+    public ExpenseTableModel(ExpenseManager manager) {
+        this.manager = manager;
+        rowCount = manager.getExpenseCount();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    public String getColumnLabel(int column) {
+        if (column != sortColumn) {
+            return COLUMNS[column];
+        }
+        return COLUMNS[column] + (descending ? " \u25BC" : " \u25B2");
+    }
+
+    @Override
+    public Object getValueAt(int viewRow, int column) {
+        int row = toModelRow(viewRow);
+        switch (column) {
+            case AMOUNT_COLUMN:
+                return String.format("$%.2f", ExpenseStore.toAmount(manager.getAmountCents(row)));
+            case CATEGORY_COLUMN:
+                return manager.getCategory(row);
+            default:
+                return manager.getDate(row);
+        }
+    }
+
+    public int toModelRow(int viewRow) {
+        int count = getRowCount();
+        int position = descending ? count - 1 - viewRow : viewRow;
+        switch (sortColumn) {
+            case AMOUNT_COLUMN:
+            case CATEGORY_COLUMN:
+                return sortedRows[position];
+            case DATE_COLUMN:
+                return manager.getRowInDateOrder(position);
+            default:
+                return position;
+        }
+    }
+
+    // Click on a header: sort by that column, or flip the direction if it
+    // is already the sort column
+    public void toggleSort(int column) {
+        if (column == sortColumn) {
+            descending = !descending;
+        } else {
+            sortColumn = column;
+            descending = false;
+            resort();
+        }
+        fireTableDataChanged();
+    }
+
+    // Call after the manager stored a new row
+    public void rowAdded(int row) {
+        if (row != rowCount) {
+            // Out of order with another add; pick up everything stored so far
+            rowsAdded();
+            return;
+        }
+        rowCount++;
+        if (sortColumn < 0) {
+            int viewRow = descending ? 0 : row;
+            fireTableRowsInserted(viewRow, viewRow);
+            return;
+        }
+        if (sortedRows != null) {
+            if (sortColumn == CATEGORY_COLUMN && !categoryRanks.containsKey(manager.getCategory(row))) {
+                resort();
+            } else {
+                mergeSorted(row, row + 1);
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    // Call after the manager stored rows [firstRow, endRow); rows already
+    // shown are skipped. Costs in proportion to the new rows, apart from
+    // one array copy when sorted, unless they add a category while sorted
+    // by category.
+    public void rowsAdded(int firstRow, int endRow) {
+        if (firstRow > rowCount) {
+            // Missed some rows; pick up everything stored so far
+            rowsAdded();
+            return;
+        }
+        int from = rowCount;
+        if (endRow <= from) {
+            return;
+        }
+        rowCount = endRow;
+        if (sortColumn < 0) {
+            if (descending) {
+                fireTableRowsInserted(0, endRow - from - 1);
+            } else {
+                fireTableRowsInserted(from, endRow - 1);
+            }
+            return;
+        }
+        if (sortedRows != null) {
+            boolean newCategory = false;
+            for (int row = from; sortColumn == CATEGORY_COLUMN && row < endRow && !newCategory; row++) {
+                newCategory = !categoryRanks.containsKey(manager.getCategory(row));
+            }
+            if (newCategory) {
+                resort();
+            } else {
+                mergeSorted(from, endRow);
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    // Call after a bulk add
+    public void rowsAdded() {
+        rowCount = manager.getExpenseCount();
+        if (sortedRows != null) {
+            resort();
+        }
+        fireTableDataChanged();
+    }
+
+    private void resort() {
+        if (sortColumn != AMOUNT_COLUMN && sortColumn != CATEGORY_COLUMN) {
+            sortedRows = null;
+            return;
+        }
+        if (sortColumn == CATEGORY_COLUMN) {
+            List<String> categories = manager.getAllCategories();
+            categoryRanks = new HashMap<>();
+            for (int rank = 0; rank < categories.size(); rank++) {
+                categoryRanks.put(categories.get(rank), rank);
+            }
+        }
+
+        int count = rowCount;
+        if (sortKeys.length < count) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(count, sortKeys.length * 3L / 2));
+            sortKeys = new long[capacity];
+            sortPacked = new long[capacity];
+        }
+        long[] keys = sortKeys;
+        long[] packed = sortPacked;
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int row = 0; row < count; row++) {
+            keys[row] = key(row);
+            min = Math.min(min, keys[row]);
+            max = Math.max(max, keys[row]);
+        }
+        // (key << 32 | row) sorts by key, then by insertion order, in one
+        // primitive sort. Keys spanning more than 31 bits are first replaced
+        // by their rank among the distinct keys: the distinct keys go in
+        // packed, and each key is replaced by its packed entry in place.
+        if (count > 0 && max - min >= 0 && max - min <= Integer.MAX_VALUE) {
+            for (int row = 0; row < count; row++) {
+                packed[row] = ((keys[row] - min) << 32) | row;
+            }
+        } else {
+            long[] distinct = packed;
+            System.arraycopy(keys, 0, distinct, 0, count);
+            Arrays.parallelSort(distinct, 0, count);
+            int distinctCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || distinct[i] != distinct[distinctCount - 1]) {
+                    distinct[distinctCount++] = distinct[i];
+                }
+            }
+            for (int row = 0; row < count; row++) {
+                keys[row] = ((long) Arrays.binarySearch(distinct, 0, distinctCount, keys[row]) << 32) | row;
+            }
+            packed = keys;
+        }
+        Arrays.parallelSort(packed, 0, count);
+        if (sortedRows == null || sortedRows.length != count) {
+            sortedRows = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            sortedRows[i] = (int) packed[i];
+        }
+    }
+
+    // Merges rows [from, to) into sortedRows: the new rows are sorted
+    // among themselves, then each is placed after the equal keys before it
+    private void mergeSorted(int from, int to) {
+        int[] added = IntStream.range(from, to).boxed()
+            .sorted(Comparator.comparingLong(this::key))
+            .mapToInt(Integer::intValue)
+            .toArray();
+        int[] rows = new int[sortedRows.length + added.length];
+        int copied = 0, written = 0;
+        for (int row : added) {
+            long key = key(row);
+            int low = copied, high = sortedRows.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (key(sortedRows[mid]) <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            System.arraycopy(sortedRows, copied, rows, written, low - copied);
+            written += low - copied;
+            copied = low;
+            rows[written++] = row;
+        }
+        System.arraycopy(sortedRows, copied, rows, written, sortedRows.length - copied);
+        sortedRows = rows;
+    }
+
+    private long key(int row) {
+        return sortColumn == AMOUNT_COLUMN
+            ? manager.getAmountCents(row)
+            : categoryRanks.get(manager.getCategory(row));
+    }
+}
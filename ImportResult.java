@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Outcome of a bulk add or import: how many rows were stored and which
+// rows were rejected, and why.
+public class ImportResult {
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private int added;
+    private long errorCount;
+    private final List<RowError> errors = new ArrayList<>();
+
+    void addAdded(int count) {
+        added += count;
+    }
+
+    void addError(long row, String message) {
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(new RowError(row, message));
+        }
+        errorCount++;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    // At most MAX_REPORTED_ERRORS entries; see getErrorCount for the total
+    public List<RowError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Added %d expenses, rejected %d", added, errorCount);
+    }
+
+    public static class RowError {
+        private final long row;
+        private final String message;
+
+        RowError(long row, String message) {
+            this.row = row;
+            this.message = message;
+        }
+
+        public long getRow() {
+            return row;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Row %d: %s", row, message);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Owns all writes to an ExpenseJournal on one background thread. Callers
+// queue records and get a future back straight away; the thread drains
+// whatever has queued up since its last write and commits it as a group,
+// with one flush (and at most one fsync) for the whole group. Each future
+// completes when its records are durable under the chosen Durability.
+//
+// Records must be queued in row order, i.e. under the same lock that
+// assigns the rows. Checkpoints queue behind the records before them and
+// snapshot exactly the rows those records cover, so the thread also takes
+// over checkpointing from the add path.
+//
+// When the queue is idle after a checkpoint, the thread compacts the
+// snapshot's segments one merge at a time, so a burst of adds never waits
+// behind more than a single merge.
+//
+// A failed write leaves the log unusable. The thread then checkpoints every
+// row into the snapshot on the next commit and keeps doing so until one
+// succeeds. Futures of writes that could not be saved fail with
+// the IOException, and each such failure is passed to the error listener.
+public class JournalWriter implements AutoCloseable {
+    private static final int MAX_GROUP = 4096;
+
+    private final ExpenseJournal journal;
+    private final ExpenseStore store;
+    private final Durability durability;
+    private final LedgerMetrics metrics;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile Consumer<IOException> errorListener = Throwable::printStackTrace;
+    private volatile boolean closed;
+
+    // Owned by the writer thread: rows handed over so far, the futures
+    // still waiting for a periodic fsync, when that fsync is due, the
+    // error that broke the log, and whether segments may need compacting
+    private int rows;
+    private final List<CompletableFuture<Void>> unsynced = new ArrayList<>();
+    private long syncDeadline;
+    private IOException failure;
+    private boolean compactionPending = true;
+
+    // rows is the number of rows already in the journal's files
+    public JournalWriter(ExpenseJournal journal, ExpenseStore store, int rows, Durability durability,
+                         LedgerMetrics metrics) {
+        this.journal = journal;
+        this.store = store;
+        this.rows = rows;
+        this.durability = durability;
+        this.metrics = metrics;
+        thread = new Thread(this::run, "journal-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private enum Kind { APPEND, CHECKPOINT, COMPACT, CLOSE }
+
+    private static final class Request {
+        final Kind kind;
+        final List<Expense> records;
+        final int checkpointRows;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Request(Kind kind, List<Expense> records, int checkpointRows) {
+            this.kind = kind;
+            this.records = records;
+            this.checkpointRows = checkpointRows;
+        }
+    }
+
+    public void setErrorListener(Consumer<IOException> errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public CompletableFuture<Void> append(List<Expense> records) {
+        return submit(new Request(Kind.APPEND, records, -1));
+    }
+
+    // Snapshots the first `rows` rows and starts a new log
+    public CompletableFuture<Void> checkpoint(int rows) {
+        return submit(new Request(Kind.CHECKPOINT, null, rows));
+    }
+
+    // Merges segments until compaction has nothing left to do
+    public CompletableFuture<Void> compact() {
+        return submit(new Request(Kind.COMPACT, null, -1));
+    }
+
+    private CompletableFuture<Void> submit(Request request) {
+        if (closed) {
+            throw new IllegalStateException("Ledger is closed");
+        }
+        queue.add(request);
+        return request.done;
+    }
+
+    // Writes everything queued so far and closes the journal
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        Request request = new Request(Kind.CLOSE, null, -1);
+        queue.add(request);
+        closed = true;
+        await(request.done);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Waits for a future from this class and rethrows its IOException
+    public static void await(CompletableFuture<?> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new CompletionException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<Request> group = new ArrayList<>();
+        while (true) {
+            if (compactionPending && unsynced.isEmpty() && queue.isEmpty()) {
+                compactStep();
+                continue;
+            }
+            Request first;
+            try {
+                first = unsynced.isEmpty()
+                    ? queue.take()
+                    : queue.poll(syncDeadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                sync();
+                continue;
+            }
+            group.add(first);
+            queue.drainTo(group, MAX_GROUP);
+
+            // Consecutive appends commit together; any other request
+            // splits the group
+            int from = 0;
+            for (int i = 0; i <= group.size(); i++) {
+                if (i < group.size() && group.get(i).kind == Kind.APPEND) {
+                    continue;
+                }
+                if (i > from) {
+                    commit(group.subList(from, i));
+                }
+                if (i < group.size()) {
+                    Request request = group.get(i);
+                    if (request.kind == Kind.CLOSE) {
+                        shutDown(request);
+                        return;
+                    }
+                    if (request.kind == Kind.CHECKPOINT) {
+                        checkpoint(request.checkpointRows, request.done);
+                    } else {
+                        compactAll(request.done);
+                    }
+                }
+                from = i + 1;
+            }
+            group.clear();
+
+            if (failure == null && journal.shouldCheckpoint()) {
+                checkpoint(rows, null);
+            }
+        }
+    }
+
+    private void commit(List<Request> requests) {
+        for (Request request : requests) {
+            rows += request.records.size();
+        }
+        if (failure == null) {
+            long start = System.nanoTime();
+            try {
+                for (Request request : requests) {
+                    journal.write(request.records);
+                }
+                if (durability.syncsEveryCommit()) {
+                    journal.sync();
+                } else {
+                    journal.flush();
+                }
+                metrics.record(LedgerMetrics.Operation.COMMIT, start);
+            } catch (IOException e) {
+                failure = e;
+                metrics.recordError(LedgerMetrics.Operation.COMMIT, e);
+            }
+        }
+        if (failure != null) {
+            // The log may now end in a partial record; start over from a
+            // snapshot that includes these rows
+            checkpoint(rows, null);
+        }
+        for (Request request : requests) {
+            if (failure != null) {
+                request.done.completeExceptionally(failure);
+            } else if (durability.syncsPeriodically()) {
+                if (unsynced.isEmpty()) {
+                    syncDeadline = System.currentTimeMillis() + durability.getSyncIntervalMillis();
+                }
+                unsynced.add(request.done);
+            } else {
+                request.done.complete(null);
+            }
+        }
+        if (!unsynced.isEmpty() && System.currentTimeMillis() >= syncDeadline) {
+            sync();
+        }
+    }
+
+    private void sync() {
+        if (failure == null) {
+            long start = System.nanoTime();
+            try {
+                journal.sync();
+                metrics.record(LedgerMetrics.Operation.SYNC, start);
+            } catch (IOException e) {
+                failure = e;
+                metrics.recordError(LedgerMetrics.Operation.SYNC, e);
+                checkpoint(rows, null);
+            }
+        }
+        completeUnsynced();
+    }
+
+    // A snapshot is fsynced, so it also settles every write waiting for a
+    // periodic sync
+    private void checkpoint(int snapshotRows, CompletableFuture<Void> done) {
+        long start = System.nanoTime();
+        try {
+            journal.checkpoint(store, snapshotRows);
+            metrics.record(LedgerMetrics.Operation.CHECKPOINT, start);
+            rows = snapshotRows;
+            failure = null;
+            compactionPending = true;
+            if (done != null) {
+                done.complete(null);
+            }
+        } catch (IOException e) {
+            failure = e;
+            metrics.recordError(LedgerMetrics.Operation.CHECKPOINT, e);
+            errorListener.accept(e);
+            if (done != null) {
+                done.completeExceptionally(e);
+            }
+        }
+        completeUnsynced();
+    }
+
+    private void compactStep() {
+        try {
+            compactionPending = failure == null && compactOnce();
+        } catch (IOException e) {
+            // The snapshot is unchanged; try again after the next checkpoint
+            compactionPending = false;
+            errorListener.accept(e);
+        }
+    }
+
+    // One merge, timed if there was one to do
+    private boolean compactOnce() throws IOException {
+        long start = System.nanoTime();
+        try {
+            boolean merged = journal.compact(store);
+            if (merged) {
+                metrics.record(LedgerMetrics.Operation.COMPACTION, start);
+            }
+            return merged;
+        } catch (IOException e) {
+            metrics.recordError(LedgerMetrics.Operation.COMPACTION, e);
+            throw e;
+        }
+    }
+
+    private void compactAll(CompletableFuture<Void> done) {
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            while (compactOnce()) {
+                // One merge per step
+            }
+            compactionPending = false;
+            done.complete(null);
+        } catch (IOException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    private void completeUnsynced() {
+        for (CompletableFuture<Void> future : unsynced) {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(null);
+            }
+        }
+        unsynced.clear();
+    }
+
+    private void shutDown(Request request) {
+        if (failure != null) {
+            checkpoint(rows, null);
+        }
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            if (durability.syncsPeriodically()) {
+                journal.sync();
+            }
+            completeUnsynced();
+            journal.close();
+            request.done.complete(null);
+        } catch (IOException e) {
+            failure = e;
+            metrics.recordError(LedgerMetrics.Operation.COMMIT, e);
+            completeUnsynced();
+            request.done.completeExceptionally(e);
+        }
+        // Anything that slipped in behind the close request
+        List<Request> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (Request late : rest) {
+            late.done.completeExceptionally(new IllegalStateException("Ledger is closed"));
+        }
+    }
+}
@@ -0,0 +1,702 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Compact archive and export format for a ledger's rows, written and read
+// as a stream of independent blocks so neither side holds more than one
+// block in memory:
+//
+//   header             int magic, int version (little-endian)
+//   block*             int row count, int payload length, int CRC32 of
+//                      the payload, then the payload:
+//     dictionary       varint count; per category varint byte length + UTF-8
+//     days             byte RUNS, then runs of rows on one day: zigzag
+//                      varint difference from the previous run's day (from
+//                      0 for the first), varint number of further rows on
+//                      that day; or byte PACKED (see below)
+//     category ids     index into the block's dictionary per row, packed
+//                      into as few bits as the dictionary size needs
+//     cents            byte VARINTS, then zigzag varint per row; or PACKED
+//
+// A PACKED column is the zigzag varint of its lowest value, a byte width,
+// then each row's difference from that value in width bits. The writer
+// picks whichever form is smaller per block and column: runs for rows
+// added in date order, packed offsets for shuffled dates or amounts that
+// all need about the same number of bits. Bits are packed least
+// significant first.
+//   end                a block of 0 rows whose payload is the varint total
+//                      row count, so a truncated archive is detected
+//
+// Rows keep their ledger order. A row typically takes four bytes or less,
+// against the class descriptors and two full strings per row of the
+// serialized expenses.dat.
+//
+//   java LedgerArchive export <ledger directory> <archive>
+//   java LedgerArchive restore <archive> <ledger directory>
+//   java LedgerArchive convert <expenses.dat> <archive>
+public class LedgerArchive {
+    private static final int MAGIC = 0x45584131;  // "EXA1"
+    private static final int VERSION = 1;
+    static final int BLOCK_ROWS = 1 << 16;
+    // Bounds a block a reader accepts, which keeps a corrupt length from
+    // allocating without limit
+    private static final int MAX_BLOCK_ROWS = 1 << 20;
+    private static final int MAX_PAYLOAD = 64 << 20;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte RUNS = 0;
+    private static final byte VARINTS = 0;
+    private static final byte PACKED = 1;
+    // Widest packed column; wider spreads are written as varints
+    private static final int MAX_PACKED_WIDTH = 56;
+
+    private LedgerArchive() {
+    }
+
+    // Writes every row the manager holds when called; adds made meanwhile
+    // are not included. Returns the number of rows written.
+    public static int export(ExpenseManager manager, Path file) throws IOException {
+        int rows = manager.getExpenseCount();
+        try (Writer writer = new Writer(Files.newOutputStream(file))) {
+            for (int row = 0; row < rows; row++) {
+                writer.add(manager.getEpochDay(row), manager.getAmountCents(row), manager.getCategory(row));
+            }
+        }
+        return rows;
+    }
+
+    // Adds the archived rows to the manager one block per addExpenses call
+    // and returns once they are durable. Errors refer to row positions in
+    // the archive.
+    public static ImportResult restore(Path file, ExpenseManager manager) throws IOException {
+        ImportResult result = new ImportResult();
+        try (Reader reader = new Reader(Files.newInputStream(file))) {
+            long firstRow = 0;
+            while (reader.nextBlock()) {
+                ImportResult committed = manager.addExpenses(reader.expenses());
+                result.addAdded(committed.getAdded());
+                for (ImportResult.RowError error : committed.getErrors()) {
+                    result.addError(firstRow + error.getRow(), error.getMessage());
+                }
+                firstRow += reader.blockSize();
+            }
+        }
+        JournalWriter.await(manager.whenDurable());
+        return result;
+    }
+
+    // Archives a serialized List<Expense> in the original expenses.dat format
+    @SuppressWarnings("unchecked")
+    public static int convert(Path legacyFile, Path file) throws IOException {
+        List<Expense> expenses;
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(legacyFile)))) {
+            expenses = (List<Expense>) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unreadable expense file " + legacyFile, e);
+        }
+        try (Writer writer = new Writer(Files.newOutputStream(file))) {
+            for (Expense expense : expenses) {
+                writer.add(expense);
+            }
+        }
+        return expenses.size();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: java LedgerArchive export <ledger directory> <archive>");
+            System.err.println("       java LedgerArchive restore <archive> <ledger directory>");
+            System.err.println("       java LedgerArchive convert <expenses.dat> <archive>");
+            System.exit(2);
+        }
+        Path from = Paths.get(args[1]);
+        Path to = Paths.get(args[2]);
+        long start = System.nanoTime();
+        switch (args[0]) {
+            case "export":
+                try (ExpenseManager manager = new ExpenseManager(from, Durability.BUFFERED)) {
+                    int rows = export(manager, to);
+                    System.out.printf("Exported %,d expenses to %s (%,d bytes)%n", rows, to, Files.size(to));
+                }
+                break;
+            case "restore":
+                Files.createDirectories(to);
+                try (ExpenseManager manager = new ExpenseManager(to, Durability.BUFFERED)) {
+                    System.out.println(restore(from, manager));
+                }
+                break;
+            case "convert":
+                int rows = convert(from, to);
+                System.out.printf("Archived %,d expenses from %s (%,d bytes) to %s (%,d bytes)%n",
+                    rows, from, Files.size(from), to, Files.size(to));
+                break;
+            default:
+                System.err.println("Unknown command " + args[0]);
+                System.exit(2);
+        }
+        System.out.printf("%.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+
+    // Streams rows into an archive, one block per BLOCK_ROWS rows. Closing
+    // writes the last block and the end marker and closes the stream.
+    public static final class Writer implements Closeable {
+        private final OutputStream out;
+        private final int[] days = new int[BLOCK_ROWS];
+        private final long[] cents = new long[BLOCK_ROWS];
+        private final int[] categoryIds = new int[BLOCK_ROWS];
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private String[] categories = new String[16];
+        private final Bytes payload = new Bytes();
+        private final CRC32 crc = new CRC32();
+        private int size;
+        private long rows;
+        private boolean closed;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+            byte[] header = new byte[8];
+            putInt(header, 0, MAGIC);
+            putInt(header, 4, VERSION);
+            this.out.write(header);
+        }
+
+        public void add(Expense expense) throws IOException {
+            add(ExpenseStore.parseEpochDay(expense.getDate()), ExpenseStore.toCents(expense.getAmount()),
+                expense.getCategory());
+        }
+
+        public void add(int epochDay, long amountCents, String category) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Archive writer is closed");
+            }
+            if (category == null) {
+                throw new IllegalArgumentException("Category cannot be null");
+            }
+            Integer id = dictionary.get(category);
+            if (id == null) {
+                id = dictionary.size();
+                if (id == categories.length) {
+                    categories = Arrays.copyOf(categories, id * 2);
+                }
+                categories[id] = category;
+                dictionary.put(category, id);
+            }
+            days[size] = epochDay;
+            cents[size] = amountCents;
+            categoryIds[size] = id;
+            rows++;
+            if (++size == BLOCK_ROWS) {
+                writeBlock();
+            }
+        }
+
+        // Rows added so far
+        public long getRows() {
+            return rows;
+        }
+
+        private void writeBlock() throws IOException {
+            payload.clear();
+            payload.putVarint(dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++) {
+                byte[] name = categories[id].getBytes(StandardCharsets.UTF_8);
+                payload.putVarint(name.length);
+                payload.put(name);
+            }
+            writeDays();
+            int idWidth = bitWidth(dictionary.size() - 1);
+            payload.ensureCapacity(((long) size * idWidth + 7) >>> 3);
+            for (int i = 0; i < size; i++) {
+                payload.putBits(categoryIds[i], idWidth);
+            }
+            payload.endBits();
+            writeCents();
+            writeBlock(size);
+            size = 0;
+            dictionary.clear();
+        }
+
+        private void writeDays() {
+            int low = Integer.MAX_VALUE;
+            int high = Integer.MIN_VALUE;
+            long runBytes = 0;
+            int previous = 0;
+            for (int i = 0, run; i < size; i += run) {
+                run = runLength(i);
+                runBytes += varintLength(zigzag((long) days[i] - previous)) + varintLength(run - 1);
+                previous = days[i];
+                low = Math.min(low, days[i]);
+                high = Math.max(high, days[i]);
+            }
+            int width = bitWidth((long) high - low);
+            if (runBytes <= (((long) size * width + 7) >>> 3)) {
+                payload.put(RUNS);
+                previous = 0;
+                for (int i = 0, run; i < size; i += run) {
+                    run = runLength(i);
+                    payload.putVarint(zigzag((long) days[i] - previous));
+                    payload.putVarint(run - 1);
+                    previous = days[i];
+                }
+            } else {
+                payload.put(PACKED);
+                payload.putVarint(zigzag(low));
+                payload.put((byte) width);
+                payload.ensureCapacity(((long) size * width + 7) >>> 3);
+                for (int i = 0; i < size; i++) {
+                    payload.putBits((long) days[i] - low, width);
+                }
+                payload.endBits();
+            }
+        }
+
+        // Rows from i on that share its day
+        private int runLength(int i) {
+            int run = 1;
+            while (i + run < size && days[i + run] == days[i]) {
+                run++;
+            }
+            return run;
+        }
+
+        private void writeCents() {
+            long low = Long.MAX_VALUE;
+            long high = Long.MIN_VALUE;
+            long varintBytes = 0;
+            for (int i = 0; i < size; i++) {
+                varintBytes += varintLength(zigzag(cents[i]));
+                low = Math.min(low, cents[i]);
+                high = Math.max(high, cents[i]);
+            }
+            // The spread is unsigned; it overflows a long only if it needs all 64 bits
+            int width = bitWidth(high - low);
+            if (width <= MAX_PACKED_WIDTH && (((long) size * width + 7) >>> 3) < varintBytes) {
+                payload.put(PACKED);
+                payload.putVarint(zigzag(low));
+                payload.put((byte) width);
+                payload.ensureCapacity(((long) size * width + 7) >>> 3);
+                for (int i = 0; i < size; i++) {
+                    payload.putBits(cents[i] - low, width);
+                }
+                payload.endBits();
+            } else {
+                payload.put(VARINTS);
+                for (int i = 0; i < size; i++) {
+                    payload.putVarint(zigzag(cents[i]));
+                }
+            }
+        }
+
+        private void writeBlock(int blockRows) throws IOException {
+            crc.reset();
+            crc.update(payload.bytes, 0, payload.length);
+            byte[] header = new byte[12];
+            putInt(header, 0, blockRows);
+            putInt(header, 4, payload.length);
+            putInt(header, 8, (int) crc.getValue());
+            out.write(header);
+            out.write(payload.bytes, 0, payload.length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (size > 0) {
+                    writeBlock();
+                }
+                payload.clear();
+                payload.putVarint(rows);
+                writeBlock(0);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // Streams the blocks of an archive: nextBlock reads and checks one,
+    // then its rows are read by index until the next call
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private int[] days = new int[0];
+        private long[] cents = new long[0];
+        private int[] categoryIds = new int[0];
+        private String[] categories = new String[0];
+        private byte[] payload = new byte[0];
+        private final CRC32 crc = new CRC32();
+        private int size;
+        private long rows;
+        private long blocks;
+        private boolean ended;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+            byte[] header = new byte[8];
+            try {
+                this.in.readFully(header);
+            } catch (EOFException e) {
+                throw new IOException("Not a ledger archive");
+            }
+            if (getInt(header, 0) != MAGIC || getInt(header, 4) != VERSION) {
+                throw new IOException("Not a ledger archive");
+            }
+        }
+
+        // Reads the next block; false once the end marker is reached
+        public boolean nextBlock() throws IOException {
+            if (ended) {
+                return false;
+            }
+            byte[] header = new byte[12];
+            try {
+                in.readFully(header);
+            } catch (EOFException e) {
+                throw new IOException("Truncated archive after " + rows + " rows");
+            }
+            int blockRows = getInt(header, 0);
+            int length = getInt(header, 4);
+            if (blockRows < 0 || blockRows > MAX_BLOCK_ROWS || length < 0 || length > MAX_PAYLOAD) {
+                throw new IOException("Corrupt archive block " + blocks);
+            }
+            if (payload.length < length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            try {
+                in.readFully(payload, 0, length);
+            } catch (EOFException e) {
+                throw new IOException("Truncated archive after " + rows + " rows");
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != getInt(header, 8)) {
+                throw new IOException("Checksum mismatch in archive block " + blocks);
+            }
+            Decoder decoder = new Decoder(payload, length);
+            try {
+                if (blockRows == 0) {
+                    if (decoder.varint() != rows || !decoder.done()) {
+                        throw new IOException("Archive ends after " + rows + " rows, but its end marker disagrees");
+                    }
+                    ended = true;
+                    size = 0;
+                    return false;
+                }
+                decode(decoder, blockRows);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt archive block " + blocks, e);
+            }
+            size = blockRows;
+            rows += blockRows;
+            blocks++;
+            return true;
+        }
+
+        private void decode(Decoder decoder, int blockRows) throws IOException {
+            long categoryCount = decoder.varint();
+            if (categoryCount == 0 || categoryCount > blockRows) {
+                throw new IOException("Corrupt archive block " + blocks);
+            }
+            if (categories.length < categoryCount) {
+                categories = new String[(int) categoryCount];
+            }
+            for (int id = 0; id < categoryCount; id++) {
+                categories[id] = decoder.string();
+            }
+            if (days.length < blockRows) {
+                days = new int[blockRows];
+                cents = new long[blockRows];
+                categoryIds = new int[blockRows];
+            }
+            decodeDays(decoder, blockRows);
+            int idWidth = bitWidth(categoryCount - 1);
+            for (int i = 0; i < blockRows; i++) {
+                long id = decoder.bits(idWidth);
+                if (id >= categoryCount) {
+                    throw new IOException("Corrupt archive block " + blocks);
+                }
+                categoryIds[i] = (int) id;
+            }
+            decoder.endBits();
+            byte mode = decoder.mode();
+            if (mode == PACKED) {
+                long low = unzigzag(decoder.varint());
+                int width = decoder.width(MAX_PACKED_WIDTH);
+                for (int i = 0; i < blockRows; i++) {
+                    cents[i] = low + decoder.bits(width);
+                }
+                decoder.endBits();
+            } else {
+                for (int i = 0; i < blockRows; i++) {
+                    cents[i] = unzigzag(decoder.varint());
+                }
+            }
+            if (!decoder.done()) {
+                throw new IOException("Corrupt archive block " + blocks);
+            }
+        }
+
+        private void decodeDays(Decoder decoder, int blockRows) throws IOException {
+            if (decoder.mode() == PACKED) {
+                long low = unzigzag(decoder.varint());
+                int width = decoder.width(32);
+                for (int i = 0; i < blockRows; i++) {
+                    long day = low + decoder.bits(width);
+                    if (day != (int) day) {
+                        throw new IOException("Corrupt archive block " + blocks);
+                    }
+                    days[i] = (int) day;
+                }
+                decoder.endBits();
+                return;
+            }
+            long day = 0;
+            for (int i = 0; i < blockRows; ) {
+                day += unzigzag(decoder.varint());
+                long run = decoder.varint() + 1;
+                if (day != (int) day || run > blockRows - i) {
+                    throw new IOException("Corrupt archive block " + blocks);
+                }
+                Arrays.fill(days, i, i + (int) run, (int) day);
+                i += (int) run;
+            }
+        }
+
+        // Rows in the current block
+        public int blockSize() {
+            return size;
+        }
+
+        public int epochDay(int i) {
+            return days[checkIndex(i)];
+        }
+
+        public long cents(int i) {
+            return cents[checkIndex(i)];
+        }
+
+        public String category(int i) {
+            return categories[categoryIds[checkIndex(i)]];
+        }
+
+        // The current block as expenses, created as they are read; valid
+        // until the next call to nextBlock
+        public List<Expense> expenses() {
+            int blockSize = size;
+            return new AbstractList<Expense>() {
+                @Override
+                public Expense get(int i) {
+                    if (i < 0 || i >= blockSize) {
+                        throw new IndexOutOfBoundsException("Row " + i + " of " + blockSize);
+                    }
+                    return new Expense(ExpenseStore.toAmount(cents[i]), category(i),
+                        ExpenseStore.formatDate(days[i]));
+                }
+
+                @Override
+                public int size() {
+                    return blockSize;
+                }
+            };
+        }
+
+        private int checkIndex(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Row " + i + " of " + size);
+            }
+            return i;
+        }
+
+        // Rows read so far, including the current block
+        public long getRows() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Growable byte array that varints are written to
+    private static final class Bytes {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        void putVarint(long value) {
+            if (bytes.length - length < 10) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private long bitBuffer;
+        private int bitCount;
+
+        void ensureCapacity(long extra) {
+            if (bytes.length - length < extra) {
+                bytes = Arrays.copyOf(bytes, (int) Math.max(bytes.length * 2L, length + extra));
+            }
+        }
+
+        void put(byte value) {
+            ensureCapacity(1);
+            bytes[length++] = value;
+        }
+
+        // Appends the low `width` (at most MAX_PACKED_WIDTH) bits of value;
+        // call ensureCapacity for the whole column first and endBits after
+        void putBits(long value, int width) {
+            bitBuffer |= (value & ((1L << width) - 1)) << bitCount;
+            bitCount += width;
+            while (bitCount >= 8) {
+                bytes[length++] = (byte) bitBuffer;
+                bitBuffer >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        // Pads the last packed byte
+        void endBits() {
+            if (bitCount > 0) {
+                bytes[length++] = (byte) bitBuffer;
+            }
+            bitBuffer = 0;
+            bitCount = 0;
+        }
+
+        void put(byte[] data) {
+            if (bytes.length - length < data.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + data.length));
+            }
+            System.arraycopy(data, 0, bytes, length, data.length);
+            length += data.length;
+        }
+    }
+
+    // Reads varints from a block payload; running past its end throws
+    private static final class Decoder {
+        private final byte[] bytes;
+        private final int length;
+        private int position;
+        private long bitBuffer;
+        private int bitCount;
+
+        Decoder(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= length) {
+                    throw new IllegalStateException("Varint runs past the block");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Varint longer than 10 bytes");
+        }
+
+        String string() {
+            long byteLength = varint();
+            if (byteLength > length - position) {
+                throw new IllegalStateException("String runs past the block");
+            }
+            String value = new String(bytes, position, (int) byteLength, StandardCharsets.UTF_8);
+            position += (int) byteLength;
+            return value;
+        }
+
+        long bits(int width) {
+            while (bitCount < width) {
+                if (position >= length) {
+                    throw new IllegalStateException("Packed values run past the block");
+                }
+                bitBuffer |= (long) (bytes[position++] & 0xFF) << bitCount;
+                bitCount += 8;
+            }
+            long value = bitBuffer & ((1L << width) - 1);
+            bitBuffer >>>= width;
+            bitCount -= width;
+            return value;
+        }
+
+        void endBits() {
+            bitBuffer = 0;
+            bitCount = 0;
+        }
+
+        byte mode() {
+            if (position >= length) {
+                throw new IllegalStateException("Column mode runs past the block");
+            }
+            byte mode = bytes[position++];
+            if (mode != PACKED && mode != VARINTS) {
+                throw new IllegalStateException("Unknown column mode " + mode);
+            }
+            return mode;
+        }
+
+        int width(int max) {
+            if (position >= length || bytes[position] < 0 || bytes[position] > max) {
+                throw new IllegalStateException("Bad packed width");
+            }
+            return bytes[position++];
+        }
+
+        boolean done() {
+            return position == length;
+        }
+    }
+
+    // Bits needed for values from 0 to max, read as unsigned
+    private static int bitWidth(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    private static int varintLength(long value) {
+        return (63 - Long.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+            | (bytes[offset + 3] & 0xFF) << 24;
+    }
+}
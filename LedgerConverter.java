@@ -0,0 +1,78 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.DateTimeException;
+import java.util.List;
+
+// One-time conversion of a serialized List<Expense> (the original
+// expenses.dat format) into the binary ledger format. Every expense the
+// original app could have saved converts: amounts are rounded to cents
+// and kept even where today's limits would refuse them as new input. Any
+// other row that cannot be read (no date or category, or a date that
+// does not parse) is skipped and reported by its position in the list;
+// the legacy file itself is left in place.
+//
+//   java LedgerConverter [expenses.dat] [expenses.ledger]
+public class LedgerConverter {
+    private LedgerConverter() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static ImportResult convert(Path legacyFile, Path ledgerFile) throws IOException {
+        ExpenseStore store = new ExpenseStore();
+        ImportResult result = new ImportResult();
+        long generation = 0;
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(legacyFile)))) {
+            List<Expense> expenses = (List<Expense>) ois.readObject();
+            for (int i = 0; i < expenses.size(); i++) {
+                String error = add(store, expenses.get(i));
+                if (error != null) {
+                    result.addError(i, error);
+                }
+            }
+            try {
+                // Journal generation appended by checkpoints before the binary format
+                generation = ois.readLong();
+            } catch (EOFException e) {
+                // Plain legacy file
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unreadable expense file " + legacyFile, e);
+        }
+
+        Path temp = ledgerFile.resolveSibling(ledgerFile.getFileName() + ".tmp");
+        LedgerFile.write(temp, store, store.size(), generation);
+        Files.move(temp, ledgerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        result.addAdded(store.size());
+        return result;
+    }
+
+    // Adds one legacy expense, or returns why it cannot be
+    private static String add(ExpenseStore store, Object element) {
+        if (!(element instanceof Expense)) {
+            return "Not an expense";
+        }
+        Expense expense = (Expense) element;
+        if (expense.getDate() == null || expense.getCategory() == null) {
+            return "Missing date or category";
+        }
+        int epochDay;
+        try {
+            epochDay = ExpenseStore.parseEpochDay(expense.getDate());
+        } catch (DateTimeException e) {
+            return "Invalid date " + expense.getDate();
+        }
+        store.add(epochDay, ExpenseStore.storedCents(expense.getAmount()), expense.getCategory());
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path legacyFile = Paths.get(args.length > 0 ? args[0] : "expenses.dat");
+        Path ledgerFile = Paths.get(args.length > 1 ? args[1] : "expenses.ledger");
+        ImportResult result = convert(legacyFile, ledgerFile);
+        System.out.println("Converted " + result.getAdded() + " expenses from " + legacyFile + " to " + ledgerFile);
+        for (ImportResult.RowError error : result.getErrors()) {
+            System.out.println("  Skipped " + error);
+        }
+    }
+}
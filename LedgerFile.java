@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+
+// Fixed-layout binary ledger, little-endian:
+//
+//   header (64 bytes)  magic, version, generation, row count, category count,
+//                      dictionary offset and length
+//   days               int[rows]   epoch day per row
+//   cents              long[rows]  amount in cents, 8-byte aligned
+//   category ids       int[rows]   index into the dictionary
+//   row ids            int[rows]   version 2 (segments) only: the global
+//                                  row number of each row, ascending
+//   dictionary         per category: int byte length + UTF-8 bytes
+//
+// Reads map each section with FileChannel.map and bulk-copy it into the
+// store's column chunks (version 1) or a LedgerSegment (version 2). This
+// saves per-row deserialization and date parsing, but the columns are not
+// kept mapped: opening still copies every row onto the heap, so it takes
+// time linear in the rows. The aggregates, sketches and date index built
+// at load read every row anyway.
+public class LedgerFile {
+    private static final int MAGIC = 0x45584C31;  // "EXL1"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private LedgerFile() {
+    }
+
+    // Loads the ledger into an empty store and returns its generation
+    public static long read(Path file, ExpenseStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, file, VERSION);
+            long generation = header.getLong(8);
+            int rows = header.getInt(16);
+            try {
+                for (String category : readDictionary(channel, header)) {
+                    store.internCategory(category);
+                }
+                store.appendColumns(
+                    map(channel, daysOffset(), rows * 4L).asIntBuffer(),
+                    map(channel, centsOffset(rows), rows * 8L).asLongBuffer(),
+                    map(channel, categoriesOffset(rows), rows * 4L).asIntBuffer(),
+                    rows);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt ledger " + file, e);
+            }
+            return generation;
+        }
+    }
+
+    public static LedgerSegment readSegment(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, file, SEGMENT_VERSION);
+            int rows = header.getInt(16);
+            try {
+                String[] categories = readDictionary(channel, header);
+                int[] days = new int[rows];
+                long[] cents = new long[rows];
+                int[] categoryIds = new int[rows];
+                int[] rowIds = new int[rows];
+                map(channel, daysOffset(), rows * 4L).asIntBuffer().get(days);
+                map(channel, centsOffset(rows), rows * 8L).asLongBuffer().get(cents);
+                map(channel, categoriesOffset(rows), rows * 4L).asIntBuffer().get(categoryIds);
+                map(channel, rowIdsOffset(rows), rows * 4L).asIntBuffer().get(rowIds);
+                return new LedgerSegment(rowIds, days, cents, categoryIds, categories);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt segment " + file, e);
+            }
+        }
+    }
+
+    // Checks magic, version and section layout and returns the header
+    private static ByteBuffer readHeader(FileChannel channel, Path file, int version) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            throw new IOException("Truncated ledger " + file);
+        }
+        ByteBuffer header = map(channel, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != version) {
+            throw new IOException("Not a ledger file: " + file);
+        }
+        int rows = header.getInt(16);
+        int categoryCount = header.getInt(20);
+        long dictionaryOffset = header.getLong(24);
+        long dictionaryLength = header.getLong(32);
+        if (rows < 0 || categoryCount < 0 || dictionaryOffset != dictionaryOffset(rows, version)
+                || dictionaryOffset + dictionaryLength != fileSize) {
+            throw new IOException("Corrupt ledger header in " + file);
+        }
+        return header;
+    }
+
+    private static String[] readDictionary(FileChannel channel, ByteBuffer header) throws IOException {
+        String[] categories = new String[header.getInt(20)];
+        ByteBuffer dictionary = map(channel, header.getLong(24), header.getLong(32));
+        try {
+            for (int id = 0; id < categories.length; id++) {
+                byte[] name = new byte[dictionary.getInt()];
+                dictionary.get(name);
+                categories[id] = new String(name, StandardCharsets.UTF_8);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt dictionary", e);
+        }
+        return categories;
+    }
+
+    // Writes the first `rows` rows. Only those rows and the categories
+    // already interned need to be stable; the store may grow meanwhile.
+    public static void write(Path file, ExpenseStore store, int rows, long generation) throws IOException {
+        int categoryCount = store.categoryCount();
+        int chunkCount = (rows + ExpenseStore.CHUNK_MASK) >>> ExpenseStore.CHUNK_BITS;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            channel.position(daysOffset());
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                writeInts(channel, buffer, store.dayChunk(chunk), chunkLength(rows, chunk));
+            }
+            flush(channel, buffer);
+            channel.position(centsOffset(rows));
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                writeLongs(channel, buffer, store.centChunk(chunk), chunkLength(rows, chunk));
+            }
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                writeInts(channel, buffer, store.categoryChunk(chunk), chunkLength(rows, chunk));
+            }
+            flush(channel, buffer);
+            writeTrailer(channel, buffer, VERSION, generation, rows, categoryCount, store::categoryName);
+        }
+    }
+
+    public static void writeSegment(Path file, LedgerSegment segment, long generation) throws IOException {
+        int rows = segment.size();
+        String[] categories = segment.categories();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            channel.position(daysOffset());
+            writeInts(channel, buffer, segment.days(), rows);
+            flush(channel, buffer);
+            channel.position(centsOffset(rows));
+            writeLongs(channel, buffer, segment.cents(), rows);
+            writeInts(channel, buffer, segment.categoryIds(), rows);
+            writeInts(channel, buffer, segment.rowIds(), rows);
+            flush(channel, buffer);
+            writeTrailer(channel, buffer, SEGMENT_VERSION, generation, rows, categories.length, id -> categories[id]);
+        }
+    }
+
+    // Writes the dictionary after the columns, then the header, and forces
+    // the file to disk
+    private static void writeTrailer(FileChannel channel, ByteBuffer buffer, int version, long generation,
+                                     int rows, int categoryCount, IntFunction<String> categoryName)
+            throws IOException {
+        long dictionaryOffset = dictionaryOffset(rows, version);
+        channel.position(dictionaryOffset);
+        for (int id = 0; id < categoryCount; id++) {
+            byte[] name = categoryName.apply(id).getBytes(StandardCharsets.UTF_8);
+            if (buffer.remaining() < 4 + name.length) {
+                flush(channel, buffer);
+            }
+            if (buffer.remaining() < 4 + name.length) {
+                // Longer than the whole buffer; write it through directly
+                buffer.putInt(name.length);
+                flush(channel, buffer);
+                ByteBuffer direct = ByteBuffer.wrap(name);
+                while (direct.hasRemaining()) {
+                    channel.write(direct);
+                }
+            } else {
+                buffer.putInt(name.length).put(name);
+            }
+        }
+        flush(channel, buffer);
+        long dictionaryLength = channel.position() - dictionaryOffset;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(MAGIC)
+            .putInt(version)
+            .putLong(generation)
+            .putInt(rows)
+            .putInt(categoryCount)
+            .putLong(dictionaryOffset)
+            .putLong(dictionaryLength);
+        header.clear();
+        channel.write(header, 0);
+        channel.force(true);
+    }
+
+    private static int chunkLength(int rows, int chunk) {
+        return Math.min(ExpenseStore.CHUNK_SIZE, rows - (chunk << ExpenseStore.CHUNK_BITS));
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int length)
+            throws IOException {
+        for (int offset = 0; offset < length; ) {
+            if (buffer.remaining() < 4) {
+                flush(channel, buffer);
+            }
+            int count = Math.min(length - offset, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, offset, count);
+            buffer.position(buffer.position() + count * 4);
+            offset += count;
+        }
+    }
+
+    private static void writeLongs(FileChannel channel, ByteBuffer buffer, long[] values, int length)
+            throws IOException {
+        for (int offset = 0; offset < length; ) {
+            if (buffer.remaining() < 8) {
+                flush(channel, buffer);
+            }
+            int count = Math.min(length - offset, buffer.remaining() / 8);
+            buffer.asLongBuffer().put(values, offset, count);
+            buffer.position(buffer.position() + count * 8);
+            offset += count;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long daysOffset() {
+        return HEADER_SIZE;
+    }
+
+    private static long centsOffset(int rows) {
+        return (HEADER_SIZE + rows * 4L + 7) & ~7L;
+    }
+
+    private static long categoriesOffset(int rows) {
+        return centsOffset(rows) + rows * 8L;
+    }
+
+    private static long rowIdsOffset(int rows) {
+        return categoriesOffset(rows) + rows * 4L;
+    }
+
+    private static long dictionaryOffset(int rows, int version) {
+        return rowIdsOffset(rows) + (version == SEGMENT_VERSION ? rows * 4L : 0);
+    }
+}
@@ -0,0 +1,316 @@
+import javax.management.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+// Counters and latency histograms for one ExpenseManager and its journal
+// writer. Recording is lock-free (see LatencyHistogram), so the callers
+// time their operations inline. Row and category counts and the size of
+// the ledger's files are read when asked for.
+//
+// Published as an MXBean unless -Dexpenses.jmx=false. With
+// -Dexpenses.metrics.interval=<seconds> the latencies of each interval
+// are also appended to expenses.metrics.log in the ledger directory.
+public final class LedgerMetrics implements LedgerMetricsMXBean {
+    public enum Operation { OPEN, ADD, ADD_BATCH, QUERY, DATE_RANGE, LOOKUP, COMMIT, SYNC, CHECKPOINT, COMPACTION }
+
+    private static final String LOG_FILE = "expenses.metrics.log";
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final int LOOKUP_SAMPLING = 64;
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final Path segmentDirectory;
+    private final Path logFile;
+    private final IntSupplier rows;
+    private final IntSupplier categories;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final LongAdder[] errors = new LongAdder[OPERATIONS.length];
+    private final LongAdder rowsAdded = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder ioErrors = new LongAdder();
+    private volatile String lastIoError;
+
+    private ScheduledExecutorService dumper;
+    // Guarded by this
+    private ObjectName name;
+    private boolean stopped;
+    // What the previous dump covered; owned by the dumper thread
+    private LatencyHistogram.Snapshot[] dumpedLatencies;
+    private long[] dumpedErrors;
+    private long dumpedRows;
+
+    public LedgerMetrics(Path directory, Path segmentDirectory, Path logFile, IntSupplier rows,
+                         IntSupplier categories) {
+        this.directory = directory;
+        this.segmentDirectory = segmentDirectory;
+        this.logFile = logFile;
+        this.rows = rows;
+        this.categories = categories;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    // Records the time since startNanos, a System.nanoTime() value
+    public void record(Operation operation, long startNanos) {
+        if (startNanos != NOT_TIMED) {
+            latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    // Lookups take about as long as reading the clock twice, so only a
+    // random 1 in LOOKUP_SAMPLING of them is timed: the start time for
+    // record, or a value record ignores
+    public long startLookup() {
+        return (ThreadLocalRandom.current().nextInt() & (LOOKUP_SAMPLING - 1)) == 0 ? System.nanoTime() : NOT_TIMED;
+    }
+
+    public void recordError(Operation operation, IOException e) {
+        errors[operation.ordinal()].increment();
+        ioErrors.increment();
+        lastIoError = operation + ": " + e;
+    }
+
+    public void rowsAdded(int count) {
+        rowsAdded.add(count);
+    }
+
+    public void rowsRejected(long count) {
+        rowsRejected.add(count);
+    }
+
+    public OperationStats get(Operation operation) {
+        return new OperationStats(latencies[operation.ordinal()].snapshot(), errors[operation.ordinal()].sum());
+    }
+
+    // Registers the MXBean and starts the metrics log, as configured by the
+    // system properties
+    public void start() {
+        if (Boolean.parseBoolean(System.getProperty("expenses.jmx", "true"))) {
+            // The first use of the platform MBean server takes a few hundred
+            // milliseconds, which opening the ledger should not wait for
+            Thread registration = new Thread(this::register, "ledger-metrics-jmx");
+            registration.setDaemon(true);
+            registration.start();
+        }
+        long interval = Long.getLong("expenses.metrics.interval", 0);
+        if (interval > 0) {
+            dumpedLatencies = new LatencyHistogram.Snapshot[OPERATIONS.length];
+            dumpedErrors = new long[OPERATIONS.length];
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                dumpedLatencies[i] = new LatencyHistogram().snapshot();
+            }
+            dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ledger-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(this::dump, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    // A ledger whose name is taken (the same directory opened twice) goes
+    // without
+    private void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            try {
+                ObjectName objectName = new ObjectName("expenses:type=Ledger,directory="
+                    + ObjectName.quote(directory.toAbsolutePath().toString()));
+                server.registerMBean(this, objectName);
+                name = objectName;
+            } catch (InstanceAlreadyExistsException e) {
+                // Metrics of this ledger are already published
+            } catch (JMException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // Writes a last interval to the log and unregisters the MXBean
+    public void stop() {
+        if (dumper != null) {
+            dumper.shutdown();
+            try {
+                dumper.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dump();
+            dumper = null;
+        }
+        synchronized (this) {
+            stopped = true;
+            if (name != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                } catch (JMException e) {
+                    // Already gone
+                }
+                name = null;
+            }
+        }
+    }
+
+    private synchronized void dump() {
+        long added = rowsAdded.sum();
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%s rows=%d (+%d) categories=%d segmentBytes=%d journalBytes=%d ioErrors=%d%n",
+            LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS), getRows(), added - dumpedRows, getCategories(),
+            getSegmentBytes(), getJournalBytes(), getIoErrors()));
+        dumpedRows = added;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            LatencyHistogram.Snapshot now = latencies[i].snapshot();
+            long errorCount = errors[i].sum();
+            LatencyHistogram.Snapshot interval = now.since(dumpedLatencies[i]);
+            if (interval.getCount() > 0 || errorCount > dumpedErrors[i]) {
+                out.append(String.format("  %-10s %s%n", OPERATIONS[i].name().toLowerCase(Locale.ROOT),
+                    new OperationStats(interval, errorCount - dumpedErrors[i])));
+            }
+            dumpedLatencies[i] = now;
+            dumpedErrors[i] = errorCount;
+        }
+        try {
+            Files.write(directory.resolve(LOG_FILE), out.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Metrics are best effort; the ledger carries on
+        }
+    }
+
+    // Total size of a file, or of the files in a directory; 0 if missing
+    private static long bytes(Path path) {
+        try {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    return files.mapToLong(LedgerMetrics::bytes).sum();
+                }
+            }
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException | UncheckedIOException e) {
+            // Changed while it was read, e.g. by a checkpoint
+            return 0;
+        }
+    }
+
+    @Override
+    public String getDirectory() {
+        return directory.toAbsolutePath().toString();
+    }
+
+    @Override
+    public int getRows() {
+        return rows.getAsInt();
+    }
+
+    @Override
+    public int getCategories() {
+        return categories.getAsInt();
+    }
+
+    @Override
+    public long getSegmentBytes() {
+        return bytes(segmentDirectory);
+    }
+
+    @Override
+    public long getJournalBytes() {
+        return bytes(logFile);
+    }
+
+    @Override
+    public long getRowsAdded() {
+        return rowsAdded.sum();
+    }
+
+    @Override
+    public long getRowsRejected() {
+        return rowsRejected.sum();
+    }
+
+    @Override
+    public long getIoErrors() {
+        return ioErrors.sum();
+    }
+
+    @Override
+    public String getLastIoError() {
+        return lastIoError;
+    }
+
+    @Override
+    public OperationStats getOpen() {
+        return get(Operation.OPEN);
+    }
+
+    @Override
+    public OperationStats getAdd() {
+        return get(Operation.ADD);
+    }
+
+    @Override
+    public OperationStats getAddBatch() {
+        return get(Operation.ADD_BATCH);
+    }
+
+    @Override
+    public OperationStats getQuery() {
+        return get(Operation.QUERY);
+    }
+
+    @Override
+    public OperationStats getDateRange() {
+        return get(Operation.DATE_RANGE);
+    }
+
+    @Override
+    public OperationStats getLookup() {
+        return get(Operation.LOOKUP);
+    }
+
+    @Override
+    public OperationStats getCommit() {
+        return get(Operation.COMMIT);
+    }
+
+    @Override
+    public OperationStats getSync() {
+        return get(Operation.SYNC);
+    }
+
+    @Override
+    public OperationStats getCheckpoint() {
+        return get(Operation.CHECKPOINT);
+    }
+
+    @Override
+    public OperationStats getCompaction() {
+        return get(Operation.COMPACTION);
+    }
+
+    @Override
+    public void resetLatencies() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+    }
+}
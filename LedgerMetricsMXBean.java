@@ -0,0 +1,48 @@
+// JMX view of one open ledger, registered as
+// expenses:type=Ledger,directory="<ledger directory>". Latencies count
+// from when the ledger was opened (or last reset); the periodic metrics
+// log reports them per interval instead.
+public interface LedgerMetricsMXBean {
+    String getDirectory();
+
+    int getRows();
+
+    int getCategories();
+
+    long getSegmentBytes();
+
+    long getJournalBytes();
+
+    long getRowsAdded();
+
+    long getRowsRejected();
+
+    long getIoErrors();
+
+    // Message of the most recent I/O error, or null
+    String getLastIoError();
+
+    OperationStats getOpen();
+
+    OperationStats getAdd();
+
+    OperationStats getAddBatch();
+
+    OperationStats getQuery();
+
+    OperationStats getDateRange();
+
+    // Point lookups (totals by category or date, category suggestions),
+    // of which a random 1 in 64 is timed and counted
+    OperationStats getLookup();
+
+    OperationStats getCommit();
+
+    OperationStats getSync();
+
+    OperationStats getCheckpoint();
+
+    OperationStats getCompaction();
+
+    void resetLatencies();
+}
@@ -0,0 +1,282 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+// Hosts many ledgers, each an ExpenseManager over its own directory under
+// root named by its id, and keeps only the recently used ones open: at
+// most maxOpen ledgers holding at most maxResidentRows rows. Rows are
+// counted the way the store allocates them, in whole chunks, so every
+// open ledger counts at least ExpenseStore.CHUNK_SIZE.
+//
+// Ledgers are used through leases. A leased ledger stays open; whenever a
+// bound is exceeded the least recently used ledgers that are not leased
+// are closed, which flushes their journals, and reopened from disk when
+// next asked for. Ledgers share no state and are loaded and closed
+// outside the registry's lock, so a slow one never holds up the others.
+// The call that pushes a ledger out closes it, and a ledger reopened
+// while it is still closing waits for that to finish.
+public final class LedgerRegistry implements AutoCloseable {
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Path root;
+    private final Durability durability;
+    private final int maxOpen;
+    private final long maxResidentRows;
+    private volatile BiConsumer<String, IOException> errorListener = (id, e) -> e.printStackTrace();
+    // Guarded by this. Open ledgers in access order, least recently used
+    // first, and those being closed after eviction
+    private final LinkedHashMap<String, Entry> open = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Entry> closing = new HashMap<>();
+    private long residentRows;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private boolean closed;
+
+    public LedgerRegistry(Path root, Durability durability, int maxOpen, long maxResidentRows) {
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("maxOpen must be at least 1");
+        }
+        if (maxResidentRows < ExpenseStore.CHUNK_SIZE) {
+            throw new IllegalArgumentException("maxResidentRows must be at least " + ExpenseStore.CHUNK_SIZE);
+        }
+        this.root = root;
+        this.durability = durability;
+        this.maxOpen = maxOpen;
+        this.maxResidentRows = maxResidentRows;
+    }
+
+    // Write errors of every ledger, and errors closing one, with its id
+    public void setErrorListener(BiConsumer<String, IOException> listener) {
+        errorListener = listener;
+    }
+
+    // Opens the ledger, creating its directory if needed, or shares the
+    // open one. Ids are 1 to 64 letters, digits, '-' or '_'.
+    public Lease open(String id) throws IOException {
+        if (id == null || !ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Ledger id must be 1 to 64 letters, digits, '-' or '_'");
+        }
+        Entry entry;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Ledger registry is closed");
+            }
+            entry = open.get(id);
+            if (entry == null) {
+                Entry previous = closing.get(id);
+                entry = new Entry(id, previous == null ? null : previous.closed);
+                open.put(id, entry);
+                misses++;
+            } else {
+                hits++;
+            }
+            entry.leases++;
+        }
+        ExpenseManager manager;
+        try {
+            manager = entry.load();
+        } catch (IOException | RuntimeException | Error e) {
+            settle(entry, null, -1);
+            throw e;
+        }
+        // Counts the rows of a ledger just loaded, which may push others out
+        settle(entry, manager, 0);
+        return new Lease(entry, manager);
+    }
+
+    // Adds leaseChange to the entry's leases and records its rows, then
+    // closes least recently used ledgers until both bounds hold again or
+    // only leased ones remain. manager is null if the ledger failed to
+    // open.
+    private void settle(Entry entry, ExpenseManager manager, int leaseChange) {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            entry.leases += leaseChange;
+            if (manager != null && open.get(entry.id) == entry) {
+                long rows = chunkedRows(manager);
+                residentRows += rows - entry.rows;
+                entry.rows = rows;
+            }
+            Iterator<Entry> lru = open.values().iterator();
+            while ((open.size() > maxOpen || residentRows > maxResidentRows) && lru.hasNext()) {
+                Entry candidate = lru.next();
+                if (candidate.leases == 0) {
+                    lru.remove();
+                    residentRows -= candidate.rows;
+                    closing.put(candidate.id, candidate);
+                    evictions++;
+                    evicted.add(candidate);
+                }
+            }
+            // A ledger that failed to open is not kept
+            if (manager == null && entry.leases == 0 && open.get(entry.id) == entry) {
+                open.remove(entry.id);
+                closing.put(entry.id, entry);
+                evicted.add(entry);
+            }
+        }
+        for (Entry victim : evicted) {
+            close(victim);
+        }
+    }
+
+    private void close(Entry entry) {
+        try {
+            entry.unload();
+        } catch (IOException e) {
+            errorListener.accept(entry.id, e);
+        } finally {
+            synchronized (this) {
+                closing.remove(entry.id, entry);
+            }
+        }
+    }
+
+    private static long chunkedRows(ExpenseManager manager) {
+        long rows = manager.getExpenseCount() + (long) ExpenseStore.CHUNK_MASK;
+        return Math.max(1, rows >>> ExpenseStore.CHUNK_BITS) << ExpenseStore.CHUNK_BITS;
+    }
+
+    public synchronized int getOpenCount() {
+        return open.size();
+    }
+
+    public synchronized long getResidentRows() {
+        return residentRows;
+    }
+
+    // Opens of a ledger that was already open
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    // Opens that had to load the ledger from disk
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Closes every ledger, leased or not; the first close error is thrown
+    // once all are closed
+    @Override
+    public void close() throws IOException {
+        List<Entry> entries;
+        synchronized (this) {
+            closed = true;
+            entries = new ArrayList<>(open.values());
+            entries.addAll(closing.values());
+            open.clear();
+            residentRows = 0;
+        }
+        IOException failure = null;
+        for (Entry entry : entries) {
+            try {
+                entry.unload();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // One ledger for as long as it is open. leases and rows are guarded by
+    // the registry, manager by the entry itself.
+    private final class Entry {
+        final String id;
+        // Completes once the ledger is closed
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+        // Closing of the instance of this ledger evicted before, or null
+        private final CompletableFuture<Void> previous;
+        int leases;
+        long rows;
+        private ExpenseManager manager;
+        private boolean unloaded;
+
+        Entry(String id, CompletableFuture<Void> previous) {
+            this.id = id;
+            this.previous = previous;
+        }
+
+        synchronized ExpenseManager load() throws IOException {
+            if (unloaded) {
+                throw new IllegalStateException("Ledger registry is closed");
+            }
+            if (manager == null) {
+                if (previous != null) {
+                    previous.join();
+                }
+                Path directory = root.resolve(id);
+                Files.createDirectories(directory);
+                manager = new ExpenseManager(directory, durability);
+                manager.setWriteErrorListener(e -> errorListener.accept(id, e));
+            }
+            return manager;
+        }
+
+        synchronized void unload() throws IOException {
+            if (unloaded) {
+                return;
+            }
+            unloaded = true;
+            try {
+                if (manager != null) {
+                    manager.close();
+                }
+            } finally {
+                closed.complete(null);
+            }
+        }
+    }
+
+    // Use of one ledger by one caller. The ledger stays open until the
+    // lease is closed; a lease is not shared between threads.
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private final ExpenseManager manager;
+        private boolean released;
+
+        private Lease(Entry entry, ExpenseManager manager) {
+            this.entry = entry;
+            this.manager = manager;
+        }
+
+        public String getId() {
+            return entry.id;
+        }
+
+        public ExpenseManager getManager() {
+            if (released) {
+                throw new IllegalStateException("Lease on " + entry.id + " is closed");
+            }
+            return manager;
+        }
+
+        // Updates the ledger's row count and may close other ledgers
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                settle(entry, manager, -1);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The rows of one segment file, column by column. Each row keeps its global
+// row number so segments can be loaded in any order and still rebuild the
+// store in the order the rows were added. Category ids index the segment's
+// own dictionary, which holds only the categories its rows use.
+public final class LedgerSegment {
+    private final int[] rowIds;
+    private final int[] days;
+    private final long[] cents;
+    private final int[] categoryIds;
+    private final String[] categories;
+
+    public LedgerSegment(int[] rowIds, int[] days, long[] cents, int[] categoryIds, String[] categories) {
+        int rows = rowIds.length;
+        if (days.length != rows || cents.length != rows || categoryIds.length != rows) {
+            throw new IllegalArgumentException("Segment columns differ in length");
+        }
+        for (int i = 0; i < rows; i++) {
+            if (rowIds[i] < 0 || (i > 0 && rowIds[i] <= rowIds[i - 1])) {
+                throw new IllegalArgumentException("Segment row ids must be ascending: " + rowIds[i]);
+            }
+            if (categoryIds[i] < 0 || categoryIds[i] >= categories.length) {
+                throw new IllegalArgumentException("Category id out of range: " + categoryIds[i]);
+            }
+        }
+        this.rowIds = rowIds;
+        this.days = days;
+        this.cents = cents;
+        this.categoryIds = categoryIds;
+        this.categories = categories;
+    }
+
+    // Copies rows[from, to) of the store; the row numbers must be ascending
+    public static LedgerSegment of(ExpenseStore store, int[] rows, int from, int to) {
+        int count = to - from;
+        int[] localIds = new int[store.categoryCount()];
+        Arrays.fill(localIds, -1);
+        String[] categories = new String[16];
+        int categoryCount = 0;
+
+        int[] rowIds = Arrays.copyOfRange(rows, from, to);
+        int[] days = new int[count];
+        long[] cents = new long[count];
+        int[] categoryIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            int row = rowIds[i];
+            int id = store.categoryId(row);
+            if (localIds[id] < 0) {
+                if (categoryCount == categories.length) {
+                    categories = Arrays.copyOf(categories, categoryCount * 2);
+                }
+                categories[categoryCount] = store.categoryName(id);
+                localIds[id] = categoryCount++;
+            }
+            days[i] = store.epochDay(row);
+            cents[i] = store.cents(row);
+            categoryIds[i] = localIds[id];
+        }
+        return new LedgerSegment(rowIds, days, cents, categoryIds, Arrays.copyOf(categories, categoryCount));
+    }
+
+    // Combines segments into one, in row order, with a merged dictionary
+    public static LedgerSegment merge(List<LedgerSegment> segments) {
+        int count = 0;
+        for (LedgerSegment segment : segments) {
+            count += segment.size();
+        }
+        int[] rowIds = new int[count];
+        int[] days = new int[count];
+        long[] cents = new long[count];
+        int[] categoryIds = new int[count];
+        Map<String, Integer> dictionary = new HashMap<>();
+        int position = 0;
+        for (LedgerSegment segment : segments) {
+            int[] mergedIds = new int[segment.categories.length];
+            for (int id = 0; id < mergedIds.length; id++) {
+                mergedIds[id] = dictionary.computeIfAbsent(segment.categories[id], name -> dictionary.size());
+            }
+            int length = segment.size();
+            System.arraycopy(segment.rowIds, 0, rowIds, position, length);
+            System.arraycopy(segment.days, 0, days, position, length);
+            System.arraycopy(segment.cents, 0, cents, position, length);
+            for (int i = 0; i < length; i++) {
+                categoryIds[position + i] = mergedIds[segment.categoryIds[i]];
+            }
+            position += length;
+        }
+
+        // Row id in the high half, position in the concatenation in the low
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) rowIds[i] << 32 | i;
+        }
+        Arrays.sort(order);
+        int[] sortedRowIds = new int[count];
+        int[] sortedDays = new int[count];
+        long[] sortedCents = new long[count];
+        int[] sortedCategoryIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            int source = (int) order[i];
+            sortedRowIds[i] = rowIds[source];
+            sortedDays[i] = days[source];
+            sortedCents[i] = cents[source];
+            sortedCategoryIds[i] = categoryIds[source];
+        }
+        String[] categories = new String[dictionary.size()];
+        dictionary.forEach((name, id) -> categories[id] = name);
+        return new LedgerSegment(sortedRowIds, sortedDays, sortedCents, sortedCategoryIds, categories);
+    }
+
+    // Writes the rows into their slots of a store already extended past them
+    public void copyInto(ExpenseStore store) {
+        int[] storeIds = new int[categories.length];
+        for (int id = 0; id < categories.length; id++) {
+            storeIds[id] = store.internCategory(categories[id]);
+        }
+        for (int i = 0; i < rowIds.length; i++) {
+            store.set(rowIds[i], days[i], cents[i], storeIds[categoryIds[i]]);
+        }
+    }
+
+    public int size() {
+        return rowIds.length;
+    }
+
+    public int[] rowIds() {
+        return rowIds;
+    }
+
+    public int[] days() {
+        return days;
+    }
+
+    public long[] cents() {
+        return cents;
+    }
+
+    public int[] categoryIds() {
+        return categoryIds;
+    }
+
+    public String[] categories() {
+        return categories;
+    }
+}
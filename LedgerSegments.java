@@ -0,0 +1,298 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// The snapshot as a directory of per-month segment files (LedgerFile
+// version 2) plus a manifest listing them. A checkpoint only writes the
+// rows added since the previous one, one new segment per month they touch,
+// so its cost follows recent activity rather than the size of the history.
+// Loading is not lazy: every segment is read in full and copied into the
+// store, since the aggregates, sketches and date index are rebuilt from
+// every row before the ledger opens.
+// Compaction merges the segments of each month back together: a closed
+// month ends up as one sealed file, and the open month is merged
+// size-tiered (four segments of a similar size become one).
+//
+// The manifest is the commit point. It is written to a temp file and
+// atomically renamed over the old one; segment files are only deleted once
+// no manifest refers to them, and files no manifest lists (left by a crash
+// mid-checkpoint) are removed on load.
+//
+// Manifest layout (big-endian): magic, generation, rows, next file number,
+// the store's category names in id order, then per segment its file name,
+// month key and row count, and finally a CRC32 of everything before it.
+public class LedgerSegments {
+    private static final int MANIFEST_MAGIC = 0x45584D31;  // "EXM1"
+    private static final String MANIFEST = "manifest";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int TIER_FANOUT = 4;
+
+    private final Path directory;
+    private List<Segment> segments = new ArrayList<>();
+    private int rows;
+    private long generation;
+    private int nextFile;
+    // Whether segments reflects the manifest on disk, if there is one
+    private boolean current;
+
+    public LedgerSegments(Path directory) {
+        this.directory = directory;
+    }
+
+    private static final class Segment {
+        final String name;
+        final int month;
+        final int rows;
+
+        Segment(String name, int month, int rows) {
+            this.name = name;
+            this.month = month;
+            this.rows = rows;
+        }
+    }
+
+    public boolean exists() {
+        return Files.exists(directory.resolve(MANIFEST));
+    }
+
+    // Loads every segment into an empty store and returns the generation
+    public long load(ExpenseStore store) throws IOException {
+        byte[] bytes = Files.readAllBytes(directory.resolve(MANIFEST));
+        if (bytes.length < 4) {
+            throw new IOException("Truncated manifest in " + directory);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            throw new IOException("Corrupt manifest in " + directory);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+        if (in.readInt() != MANIFEST_MAGIC) {
+            throw new IOException("Not a manifest: " + directory.resolve(MANIFEST));
+        }
+        long loadedGeneration = in.readLong();
+        int loadedRows = in.readInt();
+        int loadedNextFile = in.readInt();
+        int categoryCount = in.readInt();
+        for (int id = 0; id < categoryCount; id++) {
+            store.internCategory(in.readUTF());
+        }
+        int segmentCount = in.readInt();
+        List<Segment> loaded = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            loaded.add(new Segment(in.readUTF(), in.readInt(), in.readInt()));
+        }
+
+        store.extendTo(loadedRows);
+        BitSet covered = new BitSet(loadedRows);
+        Set<String> names = new HashSet<>();
+        for (Segment entry : loaded) {
+            Path file = directory.resolve(entry.name);
+            LedgerSegment segment = LedgerFile.readSegment(file);
+            int[] rowIds = segment.rowIds();
+            if (segment.size() != entry.rows
+                    || (rowIds.length > 0 && rowIds[rowIds.length - 1] >= loadedRows)) {
+                throw new IOException("Segment " + file + " does not match the manifest");
+            }
+            for (int row : rowIds) {
+                if (covered.get(row)) {
+                    throw new IOException("Row " + row + " appears twice in " + directory);
+                }
+                covered.set(row);
+            }
+            try {
+                segment.copyInto(store);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt segment " + file, e);
+            }
+            names.add(entry.name);
+        }
+        if (covered.cardinality() != loadedRows) {
+            throw new IOException("Segments in " + directory + " are missing rows");
+        }
+
+        segments = loaded;
+        rows = loadedRows;
+        generation = loadedGeneration;
+        nextFile = loadedNextFile;
+        current = true;
+        deleteUnlisted(names);
+        return generation;
+    }
+
+    // Makes the first `totalRows` rows of the store the snapshot for the
+    // given generation. Rows already in segments are not written again. A
+    // checkpoint never shrinks the snapshot: fewer rows than it holds mean
+    // the store is not the one it was loaded into, and nothing is written.
+    public void checkpoint(ExpenseStore store, int totalRows, long newGeneration) throws IOException {
+        if (totalRows < rows) {
+            throw new IOException("Checkpoint of " + totalRows + " rows would drop rows from the "
+                + rows + "-row snapshot in " + directory);
+        }
+        if (!current && exists()) {
+            throw new IOException("Checkpoint over the unread snapshot in " + directory);
+        }
+        Files.createDirectories(directory);
+        List<Segment> next = new ArrayList<>(segments);
+        int from = rows;
+
+        // Month key in the high half, row in the low
+        long[] order = new long[totalRows - from];
+        for (int row = from; row < totalRows; row++) {
+            order[row - from] = (long) ExpenseStore.monthKey(store.epochDay(row)) << 32 | row;
+        }
+        Arrays.sort(order);
+        int[] sortedRows = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedRows[i] = (int) order[i];
+        }
+
+        List<Segment> written = new ArrayList<>();
+        int file = nextFile;
+        try {
+            for (int start = 0; start < order.length; ) {
+                int month = (int) (order[start] >>> 32);
+                int end = start;
+                while (end < order.length && (int) (order[end] >>> 32) == month) {
+                    end++;
+                }
+                Segment segment = new Segment(segmentName(month, file++), month, end - start);
+                LedgerFile.writeSegment(directory.resolve(segment.name),
+                    LedgerSegment.of(store, sortedRows, start, end), newGeneration);
+                written.add(segment);
+                start = end;
+            }
+            next.addAll(written);
+            writeManifest(store, next, totalRows, newGeneration, file);
+        } catch (IOException e) {
+            deleteQuietly(written);
+            throw e;
+        }
+        segments = next;
+        rows = totalRows;
+        generation = newGeneration;
+        nextFile = file;
+        current = true;
+    }
+
+    // Runs one compaction step and returns whether it merged anything.
+    // Months before currentMonth are merged into a single segment; the
+    // current month (and any later one) merges TIER_FANOUT segments whose
+    // row counts fall in the same power-of-four tier.
+    public boolean compact(ExpenseStore store, int currentMonth) throws IOException {
+        Map<Integer, List<Segment>> byMonth = new TreeMap<>();
+        for (Segment segment : segments) {
+            byMonth.computeIfAbsent(segment.month, month -> new ArrayList<>()).add(segment);
+        }
+        for (Map.Entry<Integer, List<Segment>> month : byMonth.entrySet()) {
+            List<Segment> parts = month.getValue();
+            if (parts.size() < 2) {
+                continue;
+            }
+            if (month.getKey() < currentMonth) {
+                merge(store, month.getKey(), parts);
+                return true;
+            }
+            Map<Integer, List<Segment>> byTier = new HashMap<>();
+            for (Segment segment : parts) {
+                int tier = (31 - Integer.numberOfLeadingZeros(Math.max(1, segment.rows))) / 2;
+                List<Segment> sameTier = byTier.computeIfAbsent(tier, t -> new ArrayList<>());
+                sameTier.add(segment);
+                if (sameTier.size() == TIER_FANOUT) {
+                    merge(store, month.getKey(), sameTier);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void merge(ExpenseStore store, int month, List<Segment> parts) throws IOException {
+        List<LedgerSegment> loaded = new ArrayList<>(parts.size());
+        for (Segment part : parts) {
+            loaded.add(LedgerFile.readSegment(directory.resolve(part.name)));
+        }
+        LedgerSegment merged = LedgerSegment.merge(loaded);
+        Segment segment = new Segment(segmentName(month, nextFile), month, merged.size());
+        List<Segment> next = new ArrayList<>(segments);
+        next.removeAll(parts);
+        next.add(segment);
+        try {
+            LedgerFile.writeSegment(directory.resolve(segment.name), merged, generation);
+            writeManifest(store, next, rows, generation, nextFile + 1);
+        } catch (IOException e) {
+            deleteQuietly(Collections.singletonList(segment));
+            throw e;
+        }
+        segments = next;
+        nextFile++;
+        deleteQuietly(parts);
+    }
+
+    private void writeManifest(ExpenseStore store, List<Segment> list, int totalRows, long newGeneration,
+                               int newNextFile) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MANIFEST_MAGIC);
+        out.writeLong(newGeneration);
+        out.writeInt(totalRows);
+        out.writeInt(newNextFile);
+        int categoryCount = store.categoryCount();
+        out.writeInt(categoryCount);
+        for (int id = 0; id < categoryCount; id++) {
+            out.writeUTF(store.categoryName(id));
+        }
+        out.writeInt(list.size());
+        for (Segment segment : list) {
+            out.writeUTF(segment.name);
+            out.writeInt(segment.month);
+            out.writeInt(segment.rows);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Path manifest = directory.resolve(MANIFEST);
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String segmentName(int month, int file) {
+        return String.format("%s-%06d%s", ExpenseStore.formatMonth(month), file, SEGMENT_SUFFIX);
+    }
+
+    private void deleteUnlisted(Set<String> names) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if ((name.endsWith(SEGMENT_SUFFIX) && !names.contains(name)) || name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // A file that cannot be deleted is only wasted space; the manifest no
+    // longer refers to it and the next load removes it
+    private void deleteQuietly(List<Segment> list) {
+        for (Segment segment : list) {
+            try {
+                Files.deleteIfExists(directory.resolve(segment.name));
+            } catch (IOException e) {
+                // Left for the next load
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Headless mode: serves one ledger over HTTP on the loopback interface so
+// any number of local tools and scripts can share it instead of each one
+// loading it. Requests run one per virtual thread where the JDK has them
+// (21+) and on a cached thread pool otherwise; ExpenseManager is safe to
+// share between them.
+//
+//   POST /expenses        {"amount": 12.5, "category": "Groceries", "date": "2024-01-31"}
+//                         -> 201 {"row": 42}
+//   POST /expenses/bulk   [{...}, {...}] -> {"added": 2, "rejected": 0, "errors": []}
+//   GET  /expenses?from=2024-01-01&to=2024-01-31
+//                         -> [{...}, ...] in date order, streamed as it is written
+//   GET  /totals?groupBy=category|month|day|category_month&from=&to=
+//               &categories=Groceries,Rent&min=&max=
+//                         -> {"total": ..., "count": ..., "groups": {...}} ("pivot" for
+//                            category_month); every parameter is optional
+//
+// Adding ?durable=true to a POST answers only once the expenses are on
+// disk under the ledger's durability (-Dexpenses.durability). Amounts are
+// written as exact decimals. Invalid input is answered with 400 and
+// {"error": "..."}, and a body over MAX_BODY_BYTES with 413.
+//
+//   java LedgerServer [port] [directory]
+//
+// main turns on TCP_NODELAY (-Dsun.net.httpserver.nodelay=true) unless it
+// is set; a program that embeds the server should pass that flag itself.
+// Otherwise each response body waits for the client's delayed ACK of the
+// headers, about 40 ms per request.
+public class LedgerServer {
+    private static final int DEFAULT_PORT = 8765;
+    private static final int STREAM_BUFFER = 1 << 16;
+    // Enough for a bulk add of well over 100,000 expenses
+    static final int MAX_BODY_BYTES = 16 << 20;
+
+    private final ExpenseManager manager;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    public LedgerServer(ExpenseManager manager, int port) throws IOException {
+        this.manager = manager;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtual != null ? virtual : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/expenses", exchange -> handle(exchange, this::expenses));
+        server.createContext("/expenses/bulk", exchange -> handle(exchange, this::bulk));
+        server.createContext("/totals", exchange -> handle(exchange, this::totals));
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor, looked up at run time so
+    // the server still builds and runs on older JDKs; null where missing
+    // (or a preview feature that is not enabled)
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests and waits up to a second for running ones
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            handler.handle(exchange, parameters(exchange));
+        } catch (BodyTooLargeException e) {
+            sendError(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (UnsupportedOperationException e) {
+            sendError(exchange, 405, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            sendError(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void expenses(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals("/expenses")) {
+            sendError(exchange, 404, "Not found");
+        } else if (exchange.getRequestMethod().equals("POST")) {
+            Expense expense = toExpense(Json.parse(readBody(exchange)));
+            int row;
+            if (isDurable(parameters)) {
+                row = awaitDurable(manager.addExpenseAsync(expense.getAmount(), expense.getCategory(), expense.getDate()));
+            } else {
+                row = manager.addExpense(expense.getAmount(), expense.getCategory(), expense.getDate());
+            }
+            send(exchange, 201, new StringBuilder("{\"row\":").append(row).append('}'));
+        } else if (exchange.getRequestMethod().equals("GET")) {
+            streamRange(exchange, required(parameters, "from"), required(parameters, "to"));
+        } else {
+            throw new UnsupportedOperationException("Use GET or POST");
+        }
+    }
+
+    // Writes the rows straight from the ledger as they are formatted;
+    // nothing holds the whole response in memory
+    private void streamRange(HttpExchange exchange, String from, String to) throws IOException {
+        int[] rows = manager.getRowsByDateRange(from, to);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), STREAM_BUFFER)) {
+            StringBuilder line = new StringBuilder(96);
+            out.write('[');
+            for (int i = 0; i < rows.length; i++) {
+                int row = rows[i];
+                line.setLength(0);
+                line.append(i == 0 ? "{\"amount\":" : ",\n{\"amount\":");
+                Json.cents(line, manager.getAmountCents(row)).append(",\"category\":");
+                Json.quote(line, manager.getCategory(row)).append(",\"date\":\"");
+                line.append(manager.getDate(row)).append("\"}");
+                out.append(line);
+            }
+            out.write("]\n");
+        }
+    }
+
+    private void bulk(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            throw new UnsupportedOperationException("Use POST");
+        }
+        Object body = Json.parse(readBody(exchange));
+        if (!(body instanceof List)) {
+            throw new IllegalArgumentException("Expected a JSON array of expenses");
+        }
+        List<?> items = (List<?>) body;
+        // Items that are not even well-formed are rejected here; the
+        // manager reports the rest by their position in `accepted`
+        List<Expense> accepted = new ArrayList<>(items.size());
+        int[] positions = new int[items.size()];
+        Map<Integer, String> errors = new TreeMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            try {
+                positions[accepted.size()] = i;
+                accepted.add(toExpense(items.get(i)));
+            } catch (IllegalArgumentException e) {
+                errors.put(i, e.getMessage());
+            }
+        }
+        ImportResult result = isDurable(parameters)
+            ? awaitDurable(manager.addExpensesAsync(accepted))
+            : manager.addExpenses(accepted);
+        for (ImportResult.RowError error : result.getErrors()) {
+            errors.put(positions[(int) error.getRow()], error.getMessage());
+        }
+
+        StringBuilder out = new StringBuilder("{\"added\":").append(result.getAdded())
+            .append(",\"rejected\":").append(items.size() - result.getAdded())
+            .append(",\"errors\":[");
+        String separator = "";
+        for (Map.Entry<Integer, String> error : errors.entrySet()) {
+            out.append(separator).append("{\"index\":").append(error.getKey()).append(",\"message\":");
+            Json.quote(out, error.getValue()).append('}');
+            separator = ",";
+        }
+        send(exchange, 200, out.append("]}"));
+    }
+
+    private void totals(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            throw new UnsupportedOperationException("Use GET");
+        }
+        ExpenseQuery query = ExpenseQuery.all();
+        String from = parameters.get("from");
+        String to = parameters.get("to");
+        if (from != null || to != null) {
+            query = query.between(required(parameters, "from"), required(parameters, "to"));
+        }
+        if (parameters.containsKey("categories")) {
+            query = query.inCategories(parameters.get("categories").split(","));
+        }
+        if (parameters.containsKey("min") || parameters.containsKey("max")) {
+            query = query.amountBetween(
+                parameters.containsKey("min") ? number(parameters, "min") : -Double.MAX_VALUE,
+                parameters.containsKey("max") ? number(parameters, "max") : Double.MAX_VALUE);
+        }
+        String groupBy = parameters.getOrDefault("groupBy", "none");
+        try {
+            query = query.groupBy(ExpenseQuery.GroupBy.valueOf(groupBy.toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("groupBy must be none, category, month, day or category_month");
+        }
+
+        QueryResult result = manager.query(query);
+        StringBuilder out = new StringBuilder("{\"total\":");
+        Json.cents(out, result.getTotalCents()).append(",\"count\":").append(result.getCount());
+        if (result.getGroupBy() == ExpenseQuery.GroupBy.CATEGORY_MONTH) {
+            out.append(",\"pivot\":{");
+            String separator = "";
+            for (Map.Entry<String, Map<String, Long>> category : new TreeMap<>(result.getPivotCents()).entrySet()) {
+                Json.quote(out.append(separator), category.getKey()).append(':');
+                appendTotals(out, category.getValue());
+                separator = ",";
+            }
+            out.append('}');
+        } else if (result.getGroupBy() != ExpenseQuery.GroupBy.NONE) {
+            appendTotals(out.append(",\"groups\":"), result.getTotalsCents());
+        }
+        send(exchange, 200, out.append('}'));
+    }
+
+    private static void appendTotals(StringBuilder out, Map<String, Long> totals) {
+        out.append('{');
+        String separator = "";
+        for (Map.Entry<String, Long> total : new TreeMap<>(totals).entrySet()) {
+            Json.quote(out.append(separator), total.getKey()).append(':');
+            Json.cents(out, total.getValue());
+            separator = ",";
+        }
+        out.append('}');
+    }
+
+    private static Expense toExpense(Object value) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected an object with amount, category and date");
+        }
+        Map<?, ?> fields = (Map<?, ?>) value;
+        Object amount = fields.get("amount");
+        Object category = fields.get("category");
+        Object date = fields.get("date");
+        if (!(amount instanceof Double)) {
+            throw new IllegalArgumentException("amount must be a number");
+        }
+        if (!(category instanceof String) || !(date instanceof String)) {
+            throw new IllegalArgumentException("category and date must be strings");
+        }
+        ExpenseStore.validCents((Double) amount);
+        return new Expense((Double) amount, (String) category, (String) date);
+    }
+
+    private static boolean isDurable(Map<String, String> parameters) {
+        return Boolean.parseBoolean(parameters.get("durable"));
+    }
+
+    private static <T> T awaitDurable(java.util.concurrent.CompletableFuture<T> future) throws IOException {
+        JournalWriter.await(future);
+        return future.join();
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static double number(Map<String, String> parameters, String name) {
+        double number;
+        try {
+            number = Double.parseDouble(parameters.get(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+        if (!Double.isFinite(number)) {
+            throw new IllegalArgumentException(name + " must be a finite number");
+        }
+        return number;
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            } else if (!pair.isEmpty()) {
+                parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+            }
+        }
+        return parameters;
+    }
+
+    // Refuses a declared length over MAX_BODY_BYTES before reading any of
+    // the body, and a chunked one once it grows past it
+    private static String readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > MAX_BODY_BYTES) {
+                    throw new BodyTooLargeException();
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid Content-Length " + length);
+            }
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (body.size() + read > MAX_BODY_BYTES) {
+                    throw new BodyTooLargeException();
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static final class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException() {
+            super("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            send(exchange, status, Json.quote(new StringBuilder("{\"error\":"), message).append('}'));
+        } catch (IOException e) {
+            // The client is gone, or the response had already started
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Read once, when the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Path directory = Paths.get(args.length > 1 ? args[1] : "");
+        ExpenseManager manager = new ExpenseManager(directory,
+            Durability.parse(System.getProperty("expenses.durability", "buffered")));
+        LedgerServer server = new LedgerServer(manager, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                manager.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "ledger-shutdown"));
+        server.start();
+        System.out.printf("Serving %d expenses from %s on http://127.0.0.1:%d (%s)%n",
+            manager.getExpenseCount(), directory.toAbsolutePath(), server.getPort(),
+            server.usesVirtualThreads() ? "virtual threads" : "thread pool");
+    }
+}
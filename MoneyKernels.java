@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+// Tight primitive loops over the store's column chunks that money totals
+// are computed with. Amounts are whole cents in longs, so every sum is
+// exact and comes out the same in whatever order or split the rows are
+// added. Filters are evaluated without branches: each row's match is
+// computed as 0 or 1 and multiplied into the sums, so a loop runs at the
+// same speed however selective its filter is, and the JIT is free to
+// unroll it.
+//
+// Sums are checked for overflow without branches too: each add ORs its
+// overflow bit ((a ^ r) & (b ^ r), negative when a + b wrapped) into a
+// flag, and the kernel throws ArithmeticException at the end if it was
+// ever set. Only the running sum needs the check: stored amounts are never
+// negative, so a category's or day's total cannot exceed it, and callers
+// combine the sums of several calls with Math.addExact.
+//
+// A filter is a day range, an amount range (both inclusive) and a 0/1
+// flag per category id; see Filter.
+public final class MoneyKernels {
+    private MoneyKernels() {
+    }
+
+    // The bounds of a scan, arranged for branch-free tests
+    public static final class Filter {
+        final long startDay;
+        final long daySpan;
+        final long minCents;
+        final long centSpan;
+        final int[] selected;
+
+        // selected holds 1 for each category id that counts and 0 otherwise
+        public Filter(int startDay, int endDay, long minCents, long maxCents, int[] selected) {
+            this.startDay = startDay;
+            daySpan = (long) endDay - startDay;
+            this.minCents = minCents;
+            centSpan = maxCents - minCents;
+            // An empty range would wrap around to a full one; select nothing
+            this.selected = endDay < startDay || maxCents < minCents ? new int[selected.length] : selected;
+        }
+
+        // Every row whose category id is below categoryCount
+        public static Filter all(int categoryCount) {
+            int[] selected = new int[categoryCount];
+            Arrays.fill(selected, 1);
+            return new Filter(Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, selected);
+        }
+
+        // For rows visited one at a time
+        public boolean matches(int day, long cents, int id) {
+            return match(this, day, cents, id) != 0;
+        }
+    }
+
+    // 1 if x <= y as unsigned 64-bit numbers, else 0 (Hacker's Delight 2-12)
+    private static long unsignedAtMost(long x, long y) {
+        return ((~x | y) & ((x ^ y) | ~(y - x))) >>> 63;
+    }
+
+    // 1 if the row passes the filter, else 0. A value lies in [low, high]
+    // exactly when value - low is in [0, high - low]: for days, which fit
+    // in an int, neither difference can overflow a long, so it is the sign
+    // of either being negative; amounts may use the whole long range, so
+    // theirs are compared as wrapped unsigned numbers.
+    private static long match(Filter filter, int day, long cents, int id) {
+        long dayOffset = day - filter.startDay;
+        return ((dayOffset | (filter.daySpan - dayOffset)) >>> 63 ^ 1)
+            & unsignedAtMost(cents - filter.minCents, filter.centSpan)
+            & filter.selected[id];
+    }
+
+    private static void addChecked(long[] totals, long sum, long count, long overflow) {
+        if (overflow < 0) {
+            throw new ArithmeticException("Total of the matching amounts overflows");
+        }
+        totals[0] = Math.addExact(totals[0], sum);
+        totals[1] += count;
+    }
+
+    // Each kernel below adds the cents of the rows in [from, to) that match
+    // to totals[0] and their number to totals[1], or throws
+    // ArithmeticException if their total does not fit in a long
+
+    public static void sumMatching(Filter filter, int[] days, long[] cents, int[] ids, int from, int to,
+                                   long[] totals) {
+        long sum = 0;
+        long count = 0;
+        long overflow = 0;
+        for (int i = from; i < to; i++) {
+            long match = match(filter, days[i], cents[i], ids[i]);
+            long matched = cents[i] & -match;
+            long next = sum + matched;
+            overflow |= (sum ^ next) & (matched ^ next);
+            sum = next;
+            count += match;
+        }
+        addChecked(totals, sum, count, overflow);
+    }
+
+    // Also adds each matching row to the total and row count of its
+    // category
+    public static void sumByCategory(Filter filter, int[] days, long[] cents, int[] ids, int from, int to,
+                                     long[] categoryTotals, int[] categoryRows, long[] totals) {
+        long sum = 0;
+        long count = 0;
+        long overflow = 0;
+        for (int i = from; i < to; i++) {
+            int id = ids[i];
+            long match = match(filter, days[i], cents[i], id);
+            long matched = cents[i] & -match;
+            categoryTotals[id] += matched;
+            categoryRows[id] += (int) match;
+            long next = sum + matched;
+            overflow |= (sum ^ next) & (matched ^ next);
+            sum = next;
+            count += match;
+        }
+        addChecked(totals, sum, count, overflow);
+    }
+
+    // Also adds each matching row to the total and row count of its day,
+    // kept in arrays indexed by day - firstDay; every day in [from, to)
+    // must fit
+    public static void sumByDay(Filter filter, int[] days, long[] cents, int[] ids, int from, int to,
+                                int firstDay, long[] dayTotals, int[] dayRows, long[] totals) {
+        long sum = 0;
+        long count = 0;
+        long overflow = 0;
+        for (int i = from; i < to; i++) {
+            int day = days[i] - firstDay;
+            long match = match(filter, days[i], cents[i], ids[i]);
+            long matched = cents[i] & -match;
+            dayTotals[day] += matched;
+            dayRows[day] += (int) match;
+            long next = sum + matched;
+            overflow |= (sum ^ next) & (matched ^ next);
+            sum = next;
+            count += match;
+        }
+        addChecked(totals, sum, count, overflow);
+    }
+
+    // The smallest and largest day in [from, to), as {min, max}; the range
+    // must not be empty
+    public static int[] dayRange(int[] days, int from, int to) {
+        int min = days[from];
+        int max = min;
+        for (int i = from + 1; i < to; i++) {
+            min = Math.min(min, days[i]);
+            max = Math.max(max, days[i]);
+        }
+        return new int[] {min, max};
+    }
+}
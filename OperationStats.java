@@ -0,0 +1,78 @@
+import javax.management.openmbean.CompositeData;
+
+// Latency statistics of one kind of ledger operation, as LedgerMetrics
+// reports them over JMX: how many completed, how many failed with an I/O
+// error, and the latency distribution in microseconds.
+public final class OperationStats {
+    private final long count;
+    private final long errors;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p90Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    public OperationStats(LatencyHistogram.Snapshot latencies, long errors) {
+        this(latencies.getCount(), errors, latencies.getMean() / 1e3, latencies.percentile(0.50) / 1e3,
+            latencies.percentile(0.90) / 1e3, latencies.percentile(0.99) / 1e3, latencies.percentile(0.999) / 1e3,
+            latencies.getMax() / 1e3);
+    }
+
+    private OperationStats(long count, long errors, double meanMicros, double p50Micros, double p90Micros,
+                           double p99Micros, double p999Micros, double maxMicros) {
+        this.count = count;
+        this.errors = errors;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    // Rebuilds the statistics on the client side of an MXBean proxy
+    public static OperationStats from(CompositeData data) {
+        return new OperationStats((Long) data.get("count"), (Long) data.get("errors"),
+            (Double) data.get("meanMicros"), (Double) data.get("p50Micros"), (Double) data.get("p90Micros"),
+            (Double) data.get("p99Micros"), (Double) data.get("p999Micros"), (Double) data.get("maxMicros"));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP90Micros() {
+        return p90Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d errors=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+            count, errors, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
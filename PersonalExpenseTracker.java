@@ -1,19 +1,45 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
+import javax.swing.table.TableColumn;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.time.LocalDate;
 import java.time.YearMonth;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PersonalExpenseTracker extends JFrame {
+    // The ledger loads while the window is shown; manager is set on the EDT
+    // once it is open, and background tasks wait for it through ledger()
+    private final CompletableFuture<ExpenseManager> opening;
     private ExpenseManager manager;
     private JTextField amountField, categoryField, dateField;
     private JTable expenseTable;
-    private DefaultTableModel tableModel;
+    private ExpenseTableModel tableModel;
     private JComboBox<String> categoryComboBox;
+    private JLabel totalLabel, monthlyLabel, statusLabel;
+    private BackgroundTasks tasks;
+    private boolean closing;
+    // Rows the total and the monthly label account for
+    private int totalRows = -1, monthRows = -1;
+    // Set while the category field and suggestions update each other
+    private boolean updatingCategory;
+    private static final int MAX_SUGGESTIONS = 20;
+    // Time from JVM start to the first paint of the window that startup is
+    // expected to stay within, whatever the size of the ledger
+    private static final long FIRST_PAINT_BUDGET_MILLIS = Long.getLong("expenses.firstPaintBudget", 1000);
+    // Whether startup times are also printed, for scripts that track them
+    private static final boolean PRINT_STARTUP = Boolean.getBoolean("expenses.printStartup");
+    // Milliseconds since JVM start, or -1 until reached
+    private long firstPaintMillis = -1, ledgerOpenMillis = -1;
     private static final Color PRIMARY_COLOR = new Color(138, 43, 226);  // Rich violet
     private static final Color SECONDARY_COLOR = new Color(92, 184, 92);  // Fresh green
     private static final Color BACKGROUND_COLOR = new Color(245, 245, 250);  // Soft light purple
@@ -63,9 +89,8 @@ public class PersonalExpenseTracker extends JFrame {
     }
 
     private JScrollPane createTablePanel() {
-        String[] columns = {"Amount", "Category", "Date"};
-        tableModel = new DefaultTableModel(columns, 0);
-        expenseTable = new JTable(tableModel);
+        // Replaced by an ExpenseTableModel once the ledger is open
+        expenseTable = new JTable(new DefaultTableModel(new Object[]{"Amount", "Category", "Date"}, 0));
         expenseTable.setFont(new Font("Arial", Font.PLAIN, 14));
         expenseTable.setRowHeight(30);
         expenseTable.setGridColor(BORDER_COLOR);
@@ -76,6 +101,16 @@ public class PersonalExpenseTracker extends JFrame {
         header.setForeground(Color.BLACK);
         header.setFont(new Font("Arial", Font.BOLD, 14));
         header.setPreferredSize(new Dimension(header.getWidth(), 35));
+        header.setReorderingAllowed(false);
+        header.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                int column = expenseTable.convertColumnIndexToModel(header.columnAtPoint(e.getPoint()));
+                if (column >= 0 && tableModel != null) {
+                    tableModel.toggleSort(column);
+                    updateColumnHeaders();
+                }
+            }
+        });
         
         JScrollPane scrollPane = new JScrollPane(expenseTable);
         scrollPane.setBorder(BorderFactory.createLineBorder(BORDER_COLOR));
@@ -83,10 +118,28 @@ public class PersonalExpenseTracker extends JFrame {
         return scrollPane;
     }
     
+    private void updateColumnHeaders() {
+        for (int i = 0; i < expenseTable.getColumnCount(); i++) {
+            TableColumn column = expenseTable.getColumnModel().getColumn(i);
+            column.setHeaderValue(tableModel.getColumnLabel(column.getModelIndex()));
+        }
+        expenseTable.getTableHeader().repaint();
+    }
+
     public PersonalExpenseTracker() {
-        manager = new ExpenseManager();
+        // Loads while the window is built and shown
+        opening = ExpenseManager.openAsync();
         setTitle("Personal Expense Tracker");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (!closing) {
+                    closing = true;
+                    close();
+                }
+            }
+        });
         setLayout(new BorderLayout(10, 10));
         getContentPane().setBackground(BACKGROUND_COLOR);
         
@@ -103,18 +156,172 @@ public class PersonalExpenseTracker extends JFrame {
         // Table
         JScrollPane scrollPane = createTablePanel();
         
-        // Button Panel
-        JPanel buttonPanel = createButtonPanel();
+        // Button Panel and status bar
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.setBackground(BACKGROUND_COLOR);
+        bottomPanel.add(createButtonPanel(), BorderLayout.CENTER);
+        bottomPanel.add(createStatusBar(), BorderLayout.SOUTH);
         
         // Add components to frame
         add(topPanel, BorderLayout.NORTH);
         add(scrollPane, BorderLayout.CENTER);
-        add(buttonPanel, BorderLayout.SOUTH);
+        add(bottomPanel, BorderLayout.SOUTH);
         
         // Set frame properties
         setSize(900, 600);
         setLocationRelativeTo(null);
         refreshCategoryComboBox();
+        tasks.submit("Opening ledger", progress -> {
+            ExpenseManager ledger = ledger();
+            // Before anything else, so every change after the stats are
+            // read reaches the window, even adds made while it was loading
+            followChanges(ledger);
+            return readStats(ledger);
+        }, this::ledgerOpened,
+            ex -> showError("Could not open the ledger: " + ex.getMessage()));
+    }
+
+    // Writes are queued in the background; waits for them (and for the
+    // ledger to finish opening) on a worker, then exits
+    private void close() {
+        tasks.submit("Closing ledger", progress -> {
+            ledger().close();
+            return null;
+        }, done -> exit(), ex -> {
+            showError(ex);
+            exit();
+        });
+    }
+
+    private void exit() {
+        dispose();
+        System.exit(0);
+    }
+
+    // Waits for the ledger to open; call off the EDT
+    private ExpenseManager ledger() throws IOException {
+        try {
+            return opening.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    // Fills in the window: the table reads rows in place, so it shows at
+    // once however large the ledger is, and the stats were read from the
+    // ledger's running totals as soon as it opened
+    private void ledgerOpened(long[] stats) {
+        manager = opening.join();
+        manager.setWriteErrorListener(e -> SwingUtilities.invokeLater(() ->
+            showError("Could not save expenses: " + e.getMessage())));
+        tableModel = new ExpenseTableModel(manager);
+        expenseTable.setModel(tableModel);
+        updateColumnHeaders();
+        refreshCategoryComboBox();
+        showStats(stats);
+        ledgerOpenMillis = uptimeMillis();
+        reportStartup();
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (firstPaintMillis < 0) {
+            firstPaintMillis = uptimeMillis();
+            reportStartup();
+        }
+    }
+
+    // Once the window has been painted and the ledger is open, whichever
+    // comes last
+    private void reportStartup() {
+        if (firstPaintMillis < 0 || ledgerOpenMillis < 0) {
+            return;
+        }
+        String report = String.format("Window shown after %d ms, %,d expenses ready after %d ms",
+            firstPaintMillis, manager.getExpenseCount(), ledgerOpenMillis);
+        if (firstPaintMillis > FIRST_PAINT_BUDGET_MILLIS) {
+            report += String.format(" (over the %d ms budget)", FIRST_PAINT_BUDGET_MILLIS);
+        }
+        statusLabel.setText(report);
+        if (PRINT_STARTUP) {
+            System.out.println("Startup: " + report);
+        }
+    }
+
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    // Applies each change the ledger reports on the EDT, asking for the
+    // next one only once it is shown; changes made meanwhile arrive merged
+    private void followChanges(ExpenseManager ledger) {
+        ledger.subscribe(new ExpenseChangeFeed.Subscriber() {
+            private ExpenseChangeFeed.Subscription subscription;
+
+            @Override
+            public void onSubscribe(ExpenseChangeFeed.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ExpenseChange change) {
+                SwingUtilities.invokeLater(() -> {
+                    applyChange(change);
+                    subscription.request(1);
+                });
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                SwingUtilities.invokeLater(() -> showError("Stopped following ledger changes: " + error));
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    private void applyChange(ExpenseChange change) {
+        // Before the ledger is shown the table model, created later, starts
+        // from all rows stored by then
+        if (tableModel != null) {
+            tableModel.rowsAdded(change.getFirstRow(), change.getEndRow());
+        }
+        // The change carries the totals after it, so it is only applied to
+        // labels showing an earlier state
+        if (change.getEndRow() > totalRows) {
+            totalRows = change.getEndRow();
+            totalLabel.setText(formatTotal(change.getLedgerCents()));
+        }
+        YearMonth month = YearMonth.now();
+        if (change.getEndRow() > monthRows && change.touchesMonth(month)) {
+            monthRows = change.getEndRow();
+            monthlyLabel.setText(formatMonthTotal(change.getLedgerMonthCents(month)));
+        }
+        if (change.hasNewCategories()) {
+            refreshCategoryComboBox();
+        }
+    }
+
+    private JPanel createStatusBar() {
+        JPanel statusBar = new JPanel(new BorderLayout(10, 0));
+        statusBar.setBackground(BACKGROUND_COLOR);
+        statusBar.setBorder(BorderFactory.createEmptyBorder(0, 15, 8, 15));
+        statusLabel = new JLabel(" ");
+        statusLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        statusLabel.setForeground(TEXT_COLOR);
+        JProgressBar progressBar = new JProgressBar();
+        progressBar.setPreferredSize(new Dimension(150, 14));
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        statusBar.add(progressBar, BorderLayout.EAST);
+        tasks = new BackgroundTasks(progressBar, statusLabel);
+        return statusBar;
     }
 
     private JPanel createInputPanel() {
@@ -151,7 +358,40 @@ public class PersonalExpenseTracker extends JFrame {
         categoryComboBox.setFont(new Font("Arial", Font.PLAIN, 14));
         categoryComboBox.setBackground(Color.WHITE);
         categoryComboBox.setBorder(BorderFactory.createLineBorder(BORDER_COLOR));
-        categoryComboBox.addActionListener(e -> categoryField.setText((String)categoryComboBox.getSelectedItem()));
+        categoryComboBox.addActionListener(e -> {
+            if (!updatingCategory && categoryComboBox.getSelectedIndex() > 0) {
+                updatingCategory = true;
+                categoryField.setText((String) categoryComboBox.getSelectedItem());
+                updatingCategory = false;
+            }
+        });
+        categoryField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                categoryTyped();
+            }
+            public void removeUpdate(DocumentEvent e) {
+                categoryTyped();
+            }
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        // Up and down step through the suggestions without leaving the field
+        categoryField.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                int suggestions = categoryComboBox.getItemCount() - 1;
+                int selected = categoryComboBox.getSelectedIndex();
+                if (suggestions < 1) {
+                    return;
+                }
+                if (e.getKeyCode() == KeyEvent.VK_DOWN) {
+                    categoryComboBox.setSelectedIndex(selected % suggestions + 1);
+                    e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_UP) {
+                    categoryComboBox.setSelectedIndex(selected <= 1 ? suggestions : selected - 1);
+                    e.consume();
+                }
+            }
+        });
         categoryPanel.add(categoryField, BorderLayout.CENTER);
         categoryPanel.add(categoryComboBox, BorderLayout.EAST);
         inputPanel.add(categoryPanel);
@@ -178,19 +418,16 @@ public class PersonalExpenseTracker extends JFrame {
             BorderFactory.createEmptyBorder(15, 15, 15, 15)));
         statsPanel.setBackground(Color.WHITE);
         
-        JLabel totalLabel = new JLabel(String.format("Total Expenses: $%.2f", manager.getTotalExpenses()));
+        totalLabel = new JLabel("Total Expenses: ...");
         totalLabel.setFont(new Font("Arial", Font.BOLD, 14));
         totalLabel.setForeground(TEXT_COLOR);
         
-        Map<String, Double> monthlyTotals = manager.getMonthlyTotals();
-        String currentMonth = YearMonth.now().toString();
-        double monthlyTotal = monthlyTotals.getOrDefault(currentMonth, 0.0);
-        JLabel monthlyLabel = new JLabel(String.format("This Month: $%.2f", monthlyTotal));
+        monthlyLabel = new JLabel("This Month: ...");
         monthlyLabel.setFont(new Font("Arial", Font.BOLD, 14));
         monthlyLabel.setForeground(TEXT_COLOR);
         
         JButton refreshButton = createStyledButton("Refresh Stats", SECONDARY_COLOR);
-        refreshButton.addActionListener(e -> refreshStats(totalLabel, monthlyLabel));
+        refreshButton.addActionListener(e -> refreshStats());
         
         statsPanel.add(totalLabel);
         statsPanel.add(monthlyLabel);
@@ -212,36 +449,81 @@ public class PersonalExpenseTracker extends JFrame {
         JButton dateRangeBtn = createStyledButton("Date Range Report", PRIMARY_COLOR);
         dateRangeBtn.addActionListener(e -> showDateRangeReport());
         
+        JButton importBtn = createStyledButton("Import CSV", SECONDARY_COLOR);
+        importBtn.addActionListener(e -> importCsv());
+        
         buttonPanel.add(categoryTotalsBtn);
         buttonPanel.add(monthlyTotalsBtn);
         buttonPanel.add(dateRangeBtn);
+        buttonPanel.add(importBtn);
         
         return buttonPanel;
     }
     
-    private void refreshStats(JLabel totalLabel, JLabel monthlyLabel) {
-        totalLabel.setText(String.format("Total Expenses: $%.2f", manager.getTotalExpenses()));
-        
-        Map<String, Double> monthlyTotals = manager.getMonthlyTotals();
+    private void refreshStats() {
+        tasks.submit("stats", "Refreshing statistics", progress -> readStats(ledger()), this::showStats,
+            this::showError);
+    }
+
+    // Row count, total and this month's total, in cents; call off the EDT
+    private static long[] readStats(ExpenseManager ledger) {
+        // Counted first, so the totals include at least these rows
+        int rows = ledger.getExpenseCount();
+        Map<String, Long> monthlyTotals = ledger.query(
+            ExpenseQuery.all().groupBy(ExpenseQuery.GroupBy.MONTH)).getTotalsCents();
         String currentMonth = YearMonth.now().toString();
-        double monthlyTotal = monthlyTotals.getOrDefault(currentMonth, 0.0);
-        monthlyLabel.setText(String.format("This Month: $%.2f", monthlyTotal));
+        return new long[]{rows, ledger.getTotalExpensesCents(), monthlyTotals.getOrDefault(currentMonth, 0L)};
+    }
+
+    private void showStats(long[] stats) {
+        // A change shown meanwhile is more recent
+        int rows = (int) stats[0];
+        if (rows >= totalRows) {
+            totalRows = rows;
+            totalLabel.setText(formatTotal(stats[1]));
+        }
+        if (rows >= monthRows) {
+            monthRows = rows;
+            monthlyLabel.setText(formatMonthTotal(stats[2]));
+        }
+    }
+
+    private static String formatTotal(long cents) {
+        return String.format("Total Expenses: $%.2f", ExpenseStore.toAmount(cents));
+    }
+
+    private static String formatMonthTotal(long cents) {
+        return String.format("This Month: $%.2f", ExpenseStore.toAmount(cents));
     }
     
+    // Lists the categories starting with what is typed, most used first
     private void refreshCategoryComboBox() {
-        categoryComboBox.removeAllItems();
-        categoryComboBox.addItem("");
-        
-        // Add default categories first
-        for (String category : manager.getDefaultCategories()) {
-            categoryComboBox.addItem(category);
-        }
-        
-        // Add existing categories that aren't in defaults
-        for (String category : manager.getAllCategories()) {
-            if (!manager.getDefaultCategories().contains(category)) {
+        // Rebuilding the items fires selection events, which must not
+        // overwrite what is typed
+        updatingCategory = true;
+        try {
+            categoryComboBox.removeAllItems();
+            categoryComboBox.addItem("");
+            // Until the ledger is open only the empty entry is offered
+            for (String category : manager == null ? Collections.<String>emptyList()
+                    : manager.suggestCategories(categoryField.getText(), MAX_SUGGESTIONS)) {
                 categoryComboBox.addItem(category);
             }
+        } finally {
+            updatingCategory = false;
+        }
+    }
+
+    private void categoryTyped() {
+        if (updatingCategory) {
+            return;
+        }
+        refreshCategoryComboBox();
+        if (categoryField.hasFocus() && !categoryField.getText().trim().isEmpty()
+                && categoryComboBox.getItemCount() > 1) {
+            categoryComboBox.showPopup();
+        } else {
+            categoryComboBox.hidePopup();
         }
     }
 
@@ -258,33 +540,65 @@ public class PersonalExpenseTracker extends JFrame {
             JOptionPane.ERROR_MESSAGE);
     }
 
+    private void showError(Exception ex) {
+        showError(ex instanceof IllegalArgumentException ? ex.getMessage() : ex.toString());
+    }
+
     private void showCategoryTotals() {
-        Map<String, Double> totals = manager.getAllCategoryTotals();
-        StringBuilder message = new StringBuilder("Category Totals:\n\n");
-        totals.entrySet().stream()
-            .sorted(Map.Entry.comparingByKey())
-            .forEach(entry -> 
-                message.append(String.format("%s: $%.2f\n", entry.getKey(), entry.getValue())));
-        showTextDialog("Category Totals", message.toString());
+        tasks.submit("categoryTotals", "Computing category totals", progress -> {
+            Map<String, Double> totals = ledger().getAllCategoryTotals();
+            StringBuilder message = new StringBuilder("Category Totals:\n\n");
+            totals.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> 
+                    message.append(String.format("%s: $%.2f\n", entry.getKey(), entry.getValue())));
+            return message.toString();
+        }, message -> showTextDialog("Category Totals", message), this::showError);
     }
     
     private void addExpense() {
+        double amount;
         try {
-            double amount = Double.parseDouble(amountField.getText());
-            String category = categoryField.getText();
-            String date = dateField.getText();
-            
-            manager.addExpense(amount, category, date);
-            tableModel.addRow(new Object[]{String.format("$%.2f", amount), category, date});
-            
-            clearFields();
-            refreshCategoryComboBox();
-            
+            amount = Double.parseDouble(amountField.getText());
         } catch (NumberFormatException ex) {
             showError("Please enter a valid amount");
-        } catch (IllegalArgumentException ex) {
-            showError(ex.getMessage());
+            return;
         }
+        String amountText = amountField.getText();
+        String category = categoryField.getText();
+        String date = dateField.getText();
+        clearFields();
+        
+        // The table, totals and suggestions pick the row up from the change it makes
+        tasks.submit("Saving expense", progress -> ledger().addExpense(amount, category, date), row -> {
+        }, ex -> {
+            // Put the rejected entry back so it can be corrected
+            amountField.setText(amountText);
+            categoryField.setText(category);
+            dateField.setText(date);
+            showError(ex);
+        });
+    }
+    
+    private void importCsv() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import Expenses from CSV");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        java.io.File file = chooser.getSelectedFile();
+        tasks.submit("Importing " + file.getName(), progress -> {
+            CsvExpenseImporter importer = new CsvExpenseImporter(ledger());
+            importer.setProgressListener(lines ->
+                progress.accept(String.format("Importing %s: %,d lines read", file.getName(), lines)));
+            return importer.importFile(file.toPath());
+        }, result -> {
+            StringBuilder message = new StringBuilder(result.toString()).append("\n\n");
+            for (ImportResult.RowError error : result.getErrors()) {
+                message.append(String.format("Line %d: %s\n", error.getRow(), error.getMessage()));
+            }
+            showTextDialog("Import " + file.getName(), message.toString());
+        }, this::showError);
     }
     
     private void showDateRangeReport() {
@@ -301,40 +615,39 @@ public class PersonalExpenseTracker extends JFrame {
             JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
             
         if (result == JOptionPane.OK_OPTION) {
-            try {
-                List<Expense> rangeExpenses = manager.getExpensesByDateRange(
-                    startDateField.getText(), endDateField.getText());
-                    
-                showExpenseList("Expenses from " + startDateField.getText() + 
-                              " to " + endDateField.getText(), rangeExpenses);
-            } catch (IllegalArgumentException ex) {
-                showError(ex.getMessage());
-            }
+            String startDate = startDateField.getText();
+            String endDate = endDateField.getText();
+            tasks.submit("dateRange", "Building date range report", progress ->
+                formatExpenseList(ledger().getExpensesByDateRange(startDate, endDate)),
+                message -> showTextDialog("Expenses from " + startDate + " to " + endDate, message),
+                this::showError);
         }
     }
     
     private void showMonthlyTotals() {
-        Map<String, Double> totals = manager.getMonthlyTotals();
-        StringBuilder message = new StringBuilder("Monthly Totals:\n\n");
-        totals.entrySet().stream()
-            .sorted(Map.Entry.comparingByKey())
-            .forEach(entry -> 
-                message.append(String.format("%s: $%.2f\n", entry.getKey(), entry.getValue())));
-        
-        showTextDialog("Monthly Totals", message.toString());
+        tasks.submit("monthlyTotals", "Computing monthly totals", progress -> {
+            Map<String, Double> totals = ledger().getMonthlyTotals();
+            StringBuilder message = new StringBuilder("Monthly Totals:\n\n");
+            totals.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> 
+                    message.append(String.format("%s: $%.2f\n", entry.getKey(), entry.getValue())));
+            return message.toString();
+        }, message -> showTextDialog("Monthly Totals", message), this::showError);
     }
     
-    private void showExpenseList(String title, List<Expense> expenses) {
+    private static String formatExpenseList(List<Expense> expenses) {
         StringBuilder message = new StringBuilder();
-        double total = 0;
+        // Summed in cents, which adds up exactly
+        long totalCents = 0;
         
         for (Expense expense : expenses) {
             message.append(expense.toString()).append("\n");
-            total += expense.getAmount();
+            totalCents += ExpenseStore.toCents(expense.getAmount());
         }
         
-        message.append("\nTotal: $").append(String.format("%.2f", total));
-        showTextDialog(title, message.toString());
+        message.append("\nTotal: $").append(String.format("%.2f", ExpenseStore.toAmount(totalCents)));
+        return message.toString();
     }
     
     private void showTextDialog(String title, String content) {
@@ -0,0 +1,82 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Totals of one ExpenseQuery: the overall total and row count, and per
+// group either a flat map (category name, "yyyy-MM" or "yyyy-MM-dd") or,
+// for CATEGORY_MONTH, a pivot of category -> month -> total. Totals are
+// kept in exact cents; the amount maps are converted from them on each
+// call. Each map is built for its caller, who may keep or change it.
+public final class QueryResult {
+    private final ExpenseQuery.GroupBy groupBy;
+    private final long totalCents;
+    private final int count;
+    private final Map<String, Long> totals;
+    private final Map<String, Map<String, Long>> pivot;
+
+    public QueryResult(ExpenseQuery.GroupBy groupBy, long totalCents, int count, Map<String, Long> totals,
+                       Map<String, Map<String, Long>> pivot) {
+        this.groupBy = groupBy;
+        this.totalCents = totalCents;
+        this.count = count;
+        this.totals = totals;
+        this.pivot = pivot;
+    }
+
+    public ExpenseQuery.GroupBy getGroupBy() {
+        return groupBy;
+    }
+
+    public double getTotal() {
+        return ExpenseStore.toAmount(totalCents);
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    // Number of expenses that matched
+    public int getCount() {
+        return count;
+    }
+
+    // Empty for GroupBy.NONE
+    public Map<String, Double> getTotals() {
+        return toAmounts(flatTotals());
+    }
+
+    public Map<String, Long> getTotalsCents() {
+        return new HashMap<>(flatTotals());
+    }
+
+    public Map<String, Map<String, Double>> getPivot() {
+        Map<String, Map<String, Double>> amounts = new HashMap<>();
+        checkPivot().forEach((category, months) -> amounts.put(category, toAmounts(months)));
+        return amounts;
+    }
+
+    public Map<String, Map<String, Long>> getPivotCents() {
+        Map<String, Map<String, Long>> copy = new HashMap<>();
+        checkPivot().forEach((category, months) -> copy.put(category, new HashMap<>(months)));
+        return copy;
+    }
+
+    private Map<String, Long> flatTotals() {
+        if (groupBy == ExpenseQuery.GroupBy.CATEGORY_MONTH) {
+            throw new IllegalStateException("Category by month results are read with getPivot");
+        }
+        return totals == null ? new HashMap<>() : totals;
+    }
+
+    private Map<String, Map<String, Long>> checkPivot() {
+        if (groupBy != ExpenseQuery.GroupBy.CATEGORY_MONTH) {
+            throw new IllegalStateException("Only category by month results have a pivot");
+        }
+        return pivot;
+    }
+
+    private static Map<String, Double> toAmounts(Map<String, Long> cents) {
+        Map<String, Double> amounts = new HashMap<>();
+        cents.forEach((key, value) -> amounts.put(key, ExpenseStore.toAmount(value)));
+        return amounts;
+    }
+}
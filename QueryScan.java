@@ -0,0 +1,335 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// One pass over a set of rows for an ExpenseQuery: every row is tested
+// against all filters and added to the running totals of its group.
+// Large scans split into fork/join subtasks of at least SPLIT_ROWS rows,
+// whose partial totals are merged pairwise on the way back up. Month
+// groupings are summed per day during the scan and folded into months at
+// the end, which saves computing a month key for every row.
+//
+// Runs of store rows go through the branch-free MoneyKernels one column
+// chunk at a time, except for the category by month pivot, which is
+// summed row by row like listed rows are.
+//
+// Reads only rows already published, so it runs without any lock.
+public class QueryScan extends RecursiveTask<QueryScan.Totals> {
+    private static final long serialVersionUID = 1L;
+    private static final int SPLIT_ROWS = 1 << 16;
+
+    private final ExpenseStore store;
+    private final ExpenseQuery.GroupBy groupBy;
+    private final MoneyKernels.Filter filter;
+    private final int categoryCount;
+    // The rows listed in rows[from, to), or store rows [from, to) when null
+    private final int[] rows;
+    private final int from;
+    private final int to;
+
+    private QueryScan(ExpenseStore store, ExpenseQuery.GroupBy groupBy, MoneyKernels.Filter filter,
+                      int categoryCount, int[] rows, int from, int to) {
+        this.store = store;
+        this.groupBy = groupBy;
+        this.filter = filter;
+        this.categoryCount = categoryCount;
+        this.rows = rows;
+        this.from = from;
+        this.to = to;
+    }
+
+    // Scans store rows [0, rowCount), or only the listed rows if rows is
+    // not null. Every category id of those rows must be below
+    // categoryCount; categoryMask (null for all) selects the ids that count.
+    public static QueryResult run(ExpenseStore store, ExpenseQuery query, boolean[] categoryMask,
+                                  int categoryCount, int[] rows, int rowCount) {
+        int[] selected = new int[categoryCount];
+        for (int id = 0; id < categoryCount; id++) {
+            selected[id] = categoryMask == null || categoryMask[id] ? 1 : 0;
+        }
+        MoneyKernels.Filter filter = new MoneyKernels.Filter(query.getStartDay(), query.getEndDay(),
+            query.getMinCents(), query.getMaxCents(), selected);
+        QueryScan scan = new QueryScan(store, query.getGroupBy(), filter, categoryCount, rows, 0,
+            rows == null ? rowCount : rows.length);
+        Totals totals = scan.to - scan.from > SPLIT_ROWS ? ForkJoinPool.commonPool().invoke(scan) : scan.compute();
+        return totals.toResult(store);
+    }
+
+    @Override
+    protected Totals compute() {
+        if (to - from <= SPLIT_ROWS) {
+            Totals totals = new Totals(groupBy, categoryCount);
+            if (rows == null) {
+                scanRange(totals);
+            } else {
+                scanList(totals);
+            }
+            return totals;
+        }
+        int middle = (from + to) >>> 1;
+        QueryScan left = new QueryScan(store, groupBy, filter, categoryCount, rows, from, middle);
+        QueryScan right = new QueryScan(store, groupBy, filter, categoryCount, rows, middle, to);
+        left.fork();
+        Totals totals = right.compute();
+        totals.addAll(left.join());
+        return totals;
+    }
+
+    // Walks the column chunks directly
+    private void scanRange(Totals totals) {
+        long[] sums = new long[2];
+        for (int row = from; row < to; ) {
+            int chunk = row >>> ExpenseStore.CHUNK_BITS;
+            int offset = row & ExpenseStore.CHUNK_MASK;
+            int end = Math.min(ExpenseStore.CHUNK_SIZE, offset + (to - row));
+            int[] days = store.dayChunk(chunk);
+            long[] cents = store.centChunk(chunk);
+            int[] ids = store.categoryChunk(chunk);
+            switch (groupBy) {
+                case NONE:
+                    MoneyKernels.sumMatching(filter, days, cents, ids, offset, end, sums);
+                    break;
+                case CATEGORY:
+                    MoneyKernels.sumByCategory(filter, days, cents, ids, offset, end, totals.byCategory,
+                        totals.rowsByCategory, sums);
+                    break;
+                case MONTH:
+                case DAY:
+                    int[] range = MoneyKernels.dayRange(days, offset, end);
+                    DayTotals byDay = totals.byDay;
+                    if (byDay.cover(range[0], range[1])) {
+                        MoneyKernels.sumByDay(filter, days, cents, ids, offset, end, byDay.firstDay, byDay.totals,
+                            byDay.rows, sums);
+                    } else {
+                        addMatching(totals, days, cents, ids, offset, end);
+                    }
+                    break;
+                default:
+                    addMatching(totals, days, cents, ids, offset, end);
+                    break;
+            }
+            row += end - offset;
+        }
+        totals.total = Math.addExact(totals.total, sums[0]);
+        totals.count += (int) sums[1];
+    }
+
+    private void addMatching(Totals totals, int[] days, long[] cents, int[] ids, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (filter.matches(days[i], cents[i], ids[i])) {
+                totals.add(days[i], cents[i], ids[i]);
+            }
+        }
+    }
+
+    private void scanList(Totals totals) {
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            int day = store.epochDay(row);
+            long amount = store.cents(row);
+            int id = store.categoryId(row);
+            if (filter.matches(day, amount, id)) {
+                totals.add(day, amount, id);
+            }
+        }
+    }
+
+    // Partial totals of one subtask
+    static final class Totals {
+        private final ExpenseQuery.GroupBy groupBy;
+        private long total;
+        private int count;
+        private final long[] byCategory;
+        private final int[] rowsByCategory;
+        private final DayTotals byDay;
+        private final IntLongMap[] byCategoryMonth;
+
+        Totals(ExpenseQuery.GroupBy groupBy, int categoryCount) {
+            this.groupBy = groupBy;
+            byCategory = groupBy == ExpenseQuery.GroupBy.CATEGORY ? new long[categoryCount] : null;
+            rowsByCategory = groupBy == ExpenseQuery.GroupBy.CATEGORY ? new int[categoryCount] : null;
+            byDay = groupBy == ExpenseQuery.GroupBy.MONTH || groupBy == ExpenseQuery.GroupBy.DAY
+                ? new DayTotals() : null;
+            byCategoryMonth = groupBy == ExpenseQuery.GroupBy.CATEGORY_MONTH ? new IntLongMap[categoryCount] : null;
+        }
+
+        // The total is checked; stored amounts are never negative, so the
+        // group totals cannot overflow without it
+        void add(int day, long cents, int categoryId) {
+            total = Math.addExact(total, cents);
+            count++;
+            switch (groupBy) {
+                case CATEGORY:
+                    byCategory[categoryId] += cents;
+                    rowsByCategory[categoryId]++;
+                    break;
+                case MONTH:
+                case DAY:
+                    byDay.add(day, cents);
+                    break;
+                case CATEGORY_MONTH:
+                    if (byCategoryMonth[categoryId] == null) {
+                        byCategoryMonth[categoryId] = new IntLongMap();
+                    }
+                    byCategoryMonth[categoryId].add(day, cents);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void addAll(Totals other) {
+            total = Math.addExact(total, other.total);
+            count += other.count;
+            if (byCategory != null) {
+                for (int id = 0; id < byCategory.length; id++) {
+                    byCategory[id] += other.byCategory[id];
+                    rowsByCategory[id] += other.rowsByCategory[id];
+                }
+            }
+            if (byDay != null) {
+                other.byDay.forEach(byDay::add);
+            }
+            if (byCategoryMonth != null) {
+                for (int id = 0; id < byCategoryMonth.length; id++) {
+                    IntLongMap months = other.byCategoryMonth[id];
+                    if (months == null) {
+                        continue;
+                    }
+                    if (byCategoryMonth[id] == null) {
+                        byCategoryMonth[id] = months;
+                    } else {
+                        months.forEach(byCategoryMonth[id]::add);
+                    }
+                }
+            }
+        }
+
+        QueryResult toResult(ExpenseStore store) {
+            Map<String, Long> totals = null;
+            Map<String, Map<String, Long>> pivot = null;
+            switch (groupBy) {
+                case CATEGORY:
+                    totals = new HashMap<>();
+                    for (int id = 0; id < byCategory.length; id++) {
+                        if (rowsByCategory[id] > 0) {
+                            totals.put(store.categoryName(id), byCategory[id]);
+                        }
+                    }
+                    break;
+                case MONTH:
+                    totals = new HashMap<>();
+                    Map<String, Long> months = totals;
+                    IntLongMap monthTotals = new IntLongMap();
+                    byDay.forEach((day, cents) -> monthTotals.add(ExpenseStore.monthKey(day), cents));
+                    monthTotals.forEach((month, cents) ->
+                        months.put(ExpenseStore.formatMonth(month), cents));
+                    break;
+                case DAY:
+                    totals = new HashMap<>();
+                    Map<String, Long> days = totals;
+                    byDay.forEach((day, cents) ->
+                        days.put(ExpenseStore.formatDate(day), cents));
+                    break;
+                case CATEGORY_MONTH:
+                    pivot = new HashMap<>();
+                    for (int id = 0; id < byCategoryMonth.length; id++) {
+                        if (byCategoryMonth[id] != null) {
+                            Map<String, Long> row = new HashMap<>();
+                            toMonths(byCategoryMonth[id]).forEach((month, cents) ->
+                                row.put(ExpenseStore.formatMonth(month), cents));
+                            pivot.put(store.categoryName(id), row);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return new QueryResult(groupBy, total, count, totals, pivot);
+        }
+
+        private static IntLongMap toMonths(IntLongMap days) {
+            IntLongMap months = new IntLongMap();
+            days.forEach((day, cents) -> months.add(ExpenseStore.monthKey(day), cents));
+            return months;
+        }
+    }
+
+    // Totals per epoch day in a flat array over the days seen so far, which
+    // in a ledger span a few thousand days at most; falls back to a hash map
+    // if they ever span more than MAX_SPAN days. rows counts the rows added
+    // per day, so a day whose total is 0 is still reported.
+    static final class DayTotals {
+        private static final int MAX_SPAN = 1 << 16;
+
+        private long[] totals = new long[0];
+        private int[] rows = new int[0];
+        private int firstDay;
+        private IntLongMap spilled;
+
+        void add(int day, long cents) {
+            int i = day - firstDay;
+            if (i >= 0 && i < totals.length) {
+                totals[i] += cents;
+                rows[i]++;
+            } else if (cover(day, day)) {
+                add(day, cents);
+            } else {
+                spilled.add(day, cents);
+            }
+        }
+
+        // Widens the window to include days [first, last], or returns false
+        // once the days have spilled to the hash map
+        boolean cover(int first, int last) {
+            if (spilled != null) {
+                return false;
+            }
+            long end = firstDay + (long) totals.length;
+            if (first >= firstDay && last < end) {
+                return true;
+            }
+            long low = totals.length == 0 ? first : Math.min(firstDay, (long) first);
+            long high = totals.length == 0 ? last + 1L : Math.max(end, last + 1L);
+            if (high - low > MAX_SPAN) {
+                IntLongMap map = new IntLongMap();
+                forEach(map::add);
+                spilled = map;
+                totals = new long[0];
+                rows = new int[0];
+                return false;
+            }
+            // Leave room to grow the same way again
+            int length = (int) Math.min(MAX_SPAN, Math.max(Math.max(1024, 2L * totals.length), high - low));
+            int newFirst;
+            if (totals.length == 0) {
+                newFirst = (int) (low - (length - (high - low)) / 2);
+            } else {
+                newFirst = (int) (first < firstDay ? high - length : low);
+            }
+            long[] newTotals = new long[length];
+            int[] newRows = new int[length];
+            if (totals.length > 0) {
+                System.arraycopy(totals, 0, newTotals, firstDay - newFirst, totals.length);
+                System.arraycopy(rows, 0, newRows, firstDay - newFirst, rows.length);
+            }
+            totals = newTotals;
+            rows = newRows;
+            firstDay = newFirst;
+            return true;
+        }
+
+        void forEach(IntLongMap.Entry action) {
+            if (spilled != null) {
+                spilled.forEach(action);
+            } else {
+                for (int i = 0; i < totals.length; i++) {
+                    if (rows[i] > 0) {
+                        action.accept(firstDay + i, totals[i]);
+                    }
+                }
+            }
+        }
+    }
+}
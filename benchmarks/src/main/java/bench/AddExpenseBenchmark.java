@@ -0,0 +1,68 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Latency of a single addExpense on ledgers of increasing size. A flat line
+// across sizes means adds stay O(1). addExpense returns once the expense is
+// stored and queued for the journal writer; addExpenseDurable also waits
+// until it is durable, so it shows what each Durability costs:
+//
+//   java -jar benchmarks/target/benchmarks.jar AddExpenseBenchmark -p durability=buffered,sync,10
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddExpenseBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    // sync, buffered or a sync interval in milliseconds
+    @Param({"buffered"})
+    public String durability;
+
+    private Path directory;
+    private Object manager;
+    private final double[] amounts = new double[1024];
+    private final String[] categories = new String[1024];
+    private final String[] dates = new String[1024];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void open() throws Throwable {
+        directory = LedgerFixtures.copy(rows);
+        Object mode = Ledger.PARSE_DURABILITY.invokeExact(durability);
+        manager = Ledger.OPEN_WITH_DURABILITY.invokeExact(directory, mode);
+        Random random = new Random(42);
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = (1 + random.nextInt(50_000)) / 100.0;
+            categories[i] = LedgerFixtures.CATEGORIES[random.nextInt(LedgerFixtures.CATEGORIES.length)];
+            dates[i] = LedgerFixtures.FIRST_DAY.plusDays(random.nextInt(LedgerFixtures.DAYS)).toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        Ledger.CLOSE.invokeExact(manager);
+        LedgerFixtures.delete(directory);
+    }
+
+    @Benchmark
+    public int addExpense() throws Throwable {
+        int i = next++ & 1023;
+        return (int) Ledger.ADD_EXPENSE.invokeExact(manager, amounts[i], categories[i], dates[i]);
+    }
+
+    @Benchmark
+    public Object addExpenseDurable() throws Throwable {
+        int i = next++ & 1023;
+        return ((CompletableFuture<?>) Ledger.ADD_EXPENSE_ASYNC.invokeExact(
+            manager, amounts[i], categories[i], dates[i])).join();
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Exporting a ledger to the LedgerArchive format and reading it back,
+// against reading the same rows from a serialized List<Expense> in the
+// original expenses.dat format. Setup prints both file sizes.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveBenchmark {
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private Path directory;
+    private Object manager;
+    private Path archive;
+    private Path legacyFile;
+
+    @Setup(Level.Trial)
+    public void open() throws Throwable {
+        directory = LedgerFixtures.copy(rows);
+        manager = Ledger.OPEN.invokeExact(directory);
+        archive = directory.resolve("expenses.archive");
+        int exported = (int) Ledger.ARCHIVE_EXPORT.invokeExact(manager, archive);
+        legacyFile = directory.resolve("legacy.dat");
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(legacyFile)))) {
+            out.writeObject(new ArrayList<>(((List<?>) Ledger.ALL_EXPENSES.invokeExact(manager))));
+        }
+        System.out.printf("%n%,d rows: archive %,d bytes, expenses.dat %,d bytes%n",
+            exported, Files.size(archive), Files.size(legacyFile));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        Ledger.CLOSE.invokeExact(manager);
+        LedgerFixtures.delete(directory);
+    }
+
+    @Benchmark
+    public int exportArchive() throws Throwable {
+        return (int) Ledger.ARCHIVE_EXPORT.invokeExact(manager, directory.resolve("export.archive"));
+    }
+
+    @Benchmark
+    public long readArchive() throws Throwable {
+        long total = 0;
+        Object reader = Ledger.OPEN_ARCHIVE_READER.invokeExact(Files.newInputStream(archive));
+        try {
+            while ((boolean) Ledger.READER_NEXT_BLOCK.invokeExact(reader)) {
+                int size = (int) Ledger.READER_BLOCK_SIZE.invokeExact(reader);
+                for (int i = 0; i < size; i++) {
+                    total += (long) Ledger.READER_CENTS.invokeExact(reader, i);
+                }
+            }
+        } finally {
+            Ledger.READER_CLOSE.invokeExact(reader);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int readLegacy() throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(legacyFile)))) {
+            return ((List<?>) in.readObject()).size();
+        }
+    }
+}
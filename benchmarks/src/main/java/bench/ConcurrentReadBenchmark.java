@@ -0,0 +1,103 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Report queries from several threads at once, alone and next to a thread
+// that keeps adding expenses. Reads take no lock unless they overlap a
+// publish, so per-thread read throughput should hold as threads are added:
+//
+//   java -jar benchmarks/target/benchmarks.jar ConcurrentReadBenchmark.read -t 1,2,4,8
+//
+// The readWhileWriting group runs one writer against three readers.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentReadBenchmark {
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private Path directory;
+    private Object manager;
+
+    @State(Scope.Thread)
+    public static class Queries {
+        private final String[] rangeStarts = new String[256];
+        private final String[] rangeEnds = new String[256];
+        private final double[] amounts = new double[1024];
+        private final String[] categories = new String[1024];
+        private final String[] dates = new String[1024];
+        private int next;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < rangeStarts.length; i++) {
+                int start = random.nextInt(LedgerFixtures.DAYS - 31);
+                rangeStarts[i] = LedgerFixtures.FIRST_DAY.plusDays(start).toString();
+                rangeEnds[i] = LedgerFixtures.FIRST_DAY.plusDays(start + 6).toString();
+            }
+            for (int i = 0; i < amounts.length; i++) {
+                amounts[i] = (1 + random.nextInt(50_000)) / 100.0;
+                categories[i] = LedgerFixtures.CATEGORIES[random.nextInt(LedgerFixtures.CATEGORIES.length)];
+                dates[i] = LedgerFixtures.FIRST_DAY.plusDays(random.nextInt(LedgerFixtures.DAYS)).toString();
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws Throwable {
+        directory = LedgerFixtures.copy(rows);
+        manager = Ledger.OPEN.invokeExact(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        Ledger.CLOSE.invokeExact(manager);
+        LedgerFixtures.delete(directory);
+    }
+
+    @Benchmark
+    public Object read(Queries queries) throws Throwable {
+        return query(queries);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public Object reader(Queries queries) throws Throwable {
+        return query(queries);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public int writer(Queries queries) throws Throwable {
+        int i = queries.next++ & 1023;
+        return (int) Ledger.ADD_EXPENSE.invokeExact(manager, queries.amounts[i], queries.categories[i], queries.dates[i]);
+    }
+
+    // Cycles through the queries the report screens issue
+    private Object query(Queries queries) throws Throwable {
+        int i = queries.next++;
+        switch (i & 3) {
+            case 0:
+                return (List<?>) Ledger.EXPENSES_BY_DATE_RANGE.invokeExact(
+                    manager, queries.rangeStarts[i & 255], queries.rangeEnds[i & 255]);
+            case 1:
+                return (Map<?, ?>) Ledger.ALL_CATEGORY_TOTALS.invokeExact(manager);
+            case 2:
+                return (Map<?, ?>) Ledger.MONTHLY_TOTALS.invokeExact(manager);
+            default:
+                return (double) Ledger.TOTAL_EXPENSES.invokeExact(manager);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package bench;
+
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// The application classes live in the unnamed package, which code in a
+// named package cannot reference, and JMH only accepts benchmarks that are
+// in a package. The benchmarks therefore call the ledger through these
+// method handles. They are static final, so the JIT inlines them like
+// direct calls.
+final class Ledger {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final Class<?> MANAGER = type("ExpenseManager");
+    static final Class<?> EXPENSE = type("Expense");
+    static final Class<?> DURABILITY = type("Durability");
+    static final Class<?> EXPENSE_QUERY = type("ExpenseQuery");
+    static final Class<?> REGISTRY = type("LedgerRegistry");
+    static final Class<?> LEASE = type("LedgerRegistry$Lease");
+    static final Class<?> ARCHIVE = type("LedgerArchive");
+    static final Class<?> ARCHIVE_READER = type("LedgerArchive$Reader");
+    static final Class<?> AMOUNT_SUMMARY = type("AmountSummary");
+
+    static final MethodHandle OPEN = constructor(MANAGER, Path.class);
+    // (Path, Durability) with the durability passed as Object
+    static final MethodHandle OPEN_WITH_DURABILITY = constructor(MANAGER, Path.class, DURABILITY)
+        .asType(MethodType.methodType(Object.class, Path.class, Object.class));
+    static final MethodHandle PARSE_DURABILITY = parseDurability();
+    static final MethodHandle NEW_EXPENSE = constructor(EXPENSE, double.class, String.class, String.class);
+    static final MethodHandle ADD_EXPENSE = method("addExpense", int.class, double.class, String.class, String.class);
+    static final MethodHandle ADD_EXPENSE_ASYNC = method("addExpenseAsync", CompletableFuture.class,
+        double.class, String.class, String.class);
+    static final MethodHandle ADD_EXPENSES = method("addExpenses", Object.class, List.class);
+    static final MethodHandle CHECKPOINT = method("checkpoint", void.class);
+    static final MethodHandle COMPACT = method("compact", void.class);
+    static final MethodHandle CLOSE = method("close", void.class);
+    static final MethodHandle EXPENSE_COUNT = method("getExpenseCount", int.class);
+    static final MethodHandle TOTAL_EXPENSES = method("getTotalExpenses", double.class);
+    static final MethodHandle EXPENSES_BY_DATE_RANGE = method("getExpensesByDateRange", List.class, String.class, String.class);
+    static final MethodHandle ALL_CATEGORY_TOTALS = method("getAllCategoryTotals", Map.class);
+    static final MethodHandle MONTHLY_TOTALS = method("getMonthlyTotals", Map.class);
+    static final MethodHandle ALL_EXPENSES = method("getAllExpenses", List.class);
+    static final MethodHandle ALL_CATEGORIES = method("getAllCategories", List.class);
+    static final MethodHandle TOTAL_BY_CATEGORY = method("getTotalByCategory", double.class, String.class);
+    static final MethodHandle SUGGEST_CATEGORIES = method("suggestCategories", List.class, String.class, int.class);
+    // (manager, category) and (manager, firstMonth, lastMonth) -> AmountSummary
+    static final MethodHandle CATEGORY_SUMMARY = method("getCategorySummary", Object.class, String.class);
+    static final MethodHandle MONTH_SUMMARY = method("getMonthSummary", Object.class, String.class, String.class);
+    static final MethodHandle SUMMARY_PERCENTILE = method(AMOUNT_SUMMARY, "getPercentile", double.class, double.class);
+    static final MethodHandle SUMMARY_LARGEST = method(AMOUNT_SUMMARY, "getLargest", List.class, int.class);
+    // (manager, ExpenseQuery) -> QueryResult, both passed as Object
+    static final MethodHandle QUERY = method("query", Object.class, EXPENSE_QUERY)
+        .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+
+    // (root, Durability, maxOpen, maxResidentRows) with the durability passed as Object
+    static final MethodHandle OPEN_REGISTRY = constructor(REGISTRY, Path.class, DURABILITY, int.class, long.class)
+        .asType(MethodType.methodType(Object.class, Path.class, Object.class, int.class, long.class));
+    // (registry, id) -> lease and (lease) -> manager
+    static final MethodHandle REGISTRY_OPEN = method(REGISTRY, "open", Object.class, String.class);
+    static final MethodHandle LEASE_MANAGER = method(LEASE, "getManager", Object.class);
+    static final MethodHandle LEASE_CLOSE = method(LEASE, "close", void.class);
+    static final MethodHandle REGISTRY_CLOSE = method(REGISTRY, "close", void.class);
+    static final MethodHandle REGISTRY_OPEN_COUNT = method(REGISTRY, "getOpenCount", int.class);
+    static final MethodHandle REGISTRY_HITS = method(REGISTRY, "getHits", long.class);
+    static final MethodHandle REGISTRY_MISSES = method(REGISTRY, "getMisses", long.class);
+    static final MethodHandle REGISTRY_EVICTIONS = method(REGISTRY, "getEvictions", long.class);
+    // LedgerArchive.export(manager, path) with the manager passed as Object
+    static final MethodHandle ARCHIVE_EXPORT = archiveExport();
+    static final MethodHandle OPEN_ARCHIVE_READER = constructor(ARCHIVE_READER, InputStream.class);
+    static final MethodHandle READER_NEXT_BLOCK = method(ARCHIVE_READER, "nextBlock", boolean.class);
+    static final MethodHandle READER_BLOCK_SIZE = method(ARCHIVE_READER, "blockSize", int.class);
+    static final MethodHandle READER_CENTS = method(ARCHIVE_READER, "cents", long.class, int.class);
+    static final MethodHandle READER_CLOSE = method(ARCHIVE_READER, "close", void.class);
+
+    private Ledger() {
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle parseDurability() {
+        try {
+            return LOOKUP.findStatic(DURABILITY, "parse", MethodType.methodType(DURABILITY, String.class))
+                .asType(MethodType.methodType(Object.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle archiveExport() {
+        try {
+            return LOOKUP.findStatic(ARCHIVE, "export", MethodType.methodType(int.class, MANAGER, Path.class))
+                .asType(MethodType.methodType(int.class, Object.class, Path.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // ExpenseQuery.all(), limited to [startDate, endDate] unless startDate
+    // is null and to amounts in [min, max] unless min > max, grouped by the
+    // named GroupBy. Called during setup
+    // only, so plain reflection is fine.
+    static Object newQuery(String startDate, String endDate, double min, double max, String groupBy) {
+        try {
+            Class<?> groupByType = type("ExpenseQuery$GroupBy");
+            Object query = EXPENSE_QUERY.getMethod("all").invoke(null);
+            if (startDate != null) {
+                query = EXPENSE_QUERY.getMethod("between", String.class, String.class)
+                    .invoke(query, startDate, endDate);
+            }
+            if (min <= max) {
+                query = EXPENSE_QUERY.getMethod("amountBetween", double.class, double.class).invoke(query, min, max);
+            }
+            Object group = groupByType.getMethod("valueOf", String.class).invoke(null, groupBy);
+            return EXPENSE_QUERY.getMethod("groupBy", groupByType).invoke(query, group);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(type, MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Looks up an ExpenseManager method (or one of owner) by name and
+    // parameter types; the receiver becomes Object and reference return
+    // types become the given return type
+    private static MethodHandle method(String name, Class<?> returnType, Class<?>... parameters) {
+        return method(MANAGER, name, returnType, parameters);
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+        for (java.lang.reflect.Method method : owner.getMethods()) {
+            if (method.getName().equals(name) && java.util.Arrays.equals(method.getParameterTypes(), parameters)) {
+                try {
+                    MethodHandle handle = LOOKUP.unreflect(method);
+                    return handle.asType(MethodType.methodType(returnType, Object.class, parameters));
+                } catch (IllegalAccessException e) {
+                    throw new ExceptionInInitializerError(e);
+                }
+            }
+        }
+        throw new ExceptionInInitializerError("No " + owner.getName() + "." + name);
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic ledgers of a given size. Each size is generated once into
+// java.io.tmpdir/expense-bench and reused by later forks and runs; callers
+// that write get their own copy.
+final class LedgerFixtures {
+    static final String[] CATEGORIES = {
+        "Groceries", "Transportation", "Entertainment", "Utilities", "Healthcare", "Dining Out",
+        "Shopping", "Education", "Rent", "Insurance", "Travel", "Gifts", "Fitness", "Pets",
+        "Subscriptions", "Childcare", "Clothing", "Electronics", "Home Repair", "Charity",
+        "Taxes", "Fuel", "Parking", "Coffee"
+    };
+    static final LocalDate FIRST_DAY = LocalDate.of(2015, 1, 1);
+    static final int DAYS = 3652;
+
+    private static final Path ROOT = Paths.get(System.getProperty("java.io.tmpdir"), "expense-bench");
+    private static final int BATCH_SIZE = 100_000;
+
+    private LedgerFixtures() {
+    }
+
+    static synchronized Path fixture(int rows) throws Throwable {
+        Path directory = ROOT.resolve("segments-" + rows);
+        Path complete = directory.resolve("complete");
+        if (Files.exists(complete)) {
+            return directory;
+        }
+        delete(directory);
+        Files.createDirectories(directory);
+        Object manager = Ledger.OPEN.invokeExact(directory);
+        Random random = new Random(rows);
+        List<Object> batch = new ArrayList<>(BATCH_SIZE);
+        for (int row = 0; row < rows; row++) {
+            batch.add(Ledger.NEW_EXPENSE.invokeExact(
+                (1 + random.nextInt(50_000)) / 100.0,
+                CATEGORIES[random.nextInt(CATEGORIES.length)],
+                FIRST_DAY.plusDays(random.nextInt(DAYS)).toString()));
+            if (batch.size() == BATCH_SIZE || row == rows - 1) {
+                Object result = Ledger.ADD_EXPENSES.invokeExact(manager, (List) batch);
+                batch.clear();
+            }
+        }
+        Ledger.CHECKPOINT.invokeExact(manager);
+        Ledger.COMPACT.invokeExact(manager);
+        Ledger.CLOSE.invokeExact(manager);
+        Files.createFile(complete);
+        return directory;
+    }
+
+    // A private, writable copy of the fixture
+    static Path copy(int rows) throws Throwable {
+        Path source = fixture(rows);
+        Path target = Files.createTempDirectory("expense-bench-");
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file)));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return target;
+    }
+
+    static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
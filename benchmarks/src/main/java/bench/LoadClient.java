@@ -0,0 +1,222 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Load test for a running LedgerServer. Each client thread loops over a mix
+// of requests until time is up:
+//
+//   70%  POST /expenses          one expense
+//    5%  POST /expenses/bulk     100 expenses
+//   15%  GET  /totals            grouped by category or month, some over a year
+//   10%  GET  /expenses          one month of rows, read to the end
+//
+// and the throughput, latency percentiles and errors of each kind are
+// printed at the end. Expenses go to the same categories and dates as the
+// benchmark fixtures.
+//
+//   java LedgerServer 8765 /tmp/ledger &
+//   java -cp benchmarks/target/benchmarks.jar bench.LoadClient [url] [threads] [seconds]
+public class LoadClient {
+    private static final int BULK_SIZE = 100;
+
+    private enum Operation { ADD, BULK_ADD, TOTALS, RANGE }
+
+    private final String url;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private LoadClient(String url) {
+        this.url = url;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String url = args.length > 0 ? args[0] : "http://127.0.0.1:8765";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        LoadClient client = new LoadClient(url);
+        List<Stats> stats = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Stats own = new Stats();
+            stats.add(own);
+            int seed = i;
+            workers.add(new Thread(() -> client.run(new Random(seed), own), "client-" + i));
+        }
+        long startedAt = System.nanoTime();
+        workers.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        client.running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - startedAt) / 1e9;
+
+        Stats total = new Stats();
+        stats.forEach(total::addAll);
+        System.out.printf("%s, %d threads, %.1f s%n", url, threads, elapsed);
+        System.out.printf("%-9s %10s %10s %9s %9s %9s %8s%n", "", "requests", "per sec", "p50 ms", "p99 ms",
+            "max ms", "errors");
+        for (Operation operation : Operation.values()) {
+            long[] latencies = total.latencies(operation);
+            Arrays.sort(latencies);
+            System.out.printf("%-9s %,10d %,10.0f %9.2f %9.2f %9.2f %8d%n", operation, latencies.length,
+                latencies.length / elapsed, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                percentile(latencies, 1.0), total.errors[operation.ordinal()]);
+        }
+        if (total.firstError != null) {
+            System.out.println("First error: " + total.firstError);
+        }
+    }
+
+    private void run(Random random, Stats stats) {
+        while (running.get()) {
+            int pick = random.nextInt(100);
+            Operation operation = pick < 70 ? Operation.ADD
+                : pick < 75 ? Operation.BULK_ADD
+                : pick < 90 ? Operation.TOTALS
+                : Operation.RANGE;
+            long start = System.nanoTime();
+            try {
+                send(operation, random);
+                stats.record(operation, System.nanoTime() - start);
+            } catch (IOException e) {
+                stats.error(operation, e);
+            }
+        }
+    }
+
+    private void send(Operation operation, Random random) throws IOException {
+        switch (operation) {
+            case ADD:
+                post("/expenses", expense(random, new StringBuilder()).toString());
+                break;
+            case BULK_ADD:
+                StringBuilder batch = new StringBuilder("[");
+                for (int i = 0; i < BULK_SIZE; i++) {
+                    expense(random, batch.append(i == 0 ? "" : ","));
+                }
+                post("/expenses/bulk", batch.append(']').toString());
+                break;
+            case TOTALS:
+                String groupBy = random.nextBoolean() ? "category" : "month";
+                String range = "";
+                if (random.nextBoolean()) {
+                    LocalDate from = date(random);
+                    range = "&from=" + from + "&to=" + from.plusYears(1);
+                }
+                get("/totals?groupBy=" + groupBy + range);
+                break;
+            default:
+                LocalDate from = date(random);
+                get("/expenses?from=" + from + "&to=" + from.plusMonths(1));
+                break;
+        }
+    }
+
+    private void post(String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        finish(connection);
+    }
+
+    private void get(String path) throws IOException {
+        finish((HttpURLConnection) new URL(url + path).openConnection());
+    }
+
+    // Reads the whole response so the connection can be reused
+    private static void finish(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream error = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream body = in) {
+                byte[] buffer = new byte[1 << 16];
+                int read;
+                while ((read = body.read(buffer)) > 0) {
+                    if (status >= 400) {
+                        error.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+        if (status >= 400) {
+            throw new IOException("HTTP " + status + ": " + new String(error.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static StringBuilder expense(Random random, StringBuilder out) {
+        String category = LedgerFixtures.CATEGORIES[random.nextInt(LedgerFixtures.CATEGORIES.length)];
+        return out.append("{\"amount\":").append((1 + random.nextInt(50_000)) / 100.0)
+            .append(",\"category\":\"").append(category)
+            .append("\",\"date\":\"").append(date(random)).append("\"}");
+    }
+
+    private static LocalDate date(Random random) {
+        return LedgerFixtures.FIRST_DAY.plusDays(random.nextInt(LedgerFixtures.DAYS));
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    // Latencies and errors of one client thread, per operation
+    private static final class Stats {
+        private final long[][] latencies = new long[Operation.values().length][64];
+        private final int[] counts = new int[Operation.values().length];
+        private final long[] errors = new long[Operation.values().length];
+        private String firstError;
+
+        void record(Operation operation, long nanos) {
+            int i = operation.ordinal();
+            if (counts[i] == latencies[i].length) {
+                latencies[i] = Arrays.copyOf(latencies[i], 2 * counts[i]);
+            }
+            latencies[i][counts[i]++] = nanos;
+        }
+
+        void error(Operation operation, IOException e) {
+            errors[operation.ordinal()]++;
+            if (firstError == null) {
+                firstError = operation + ": " + e.getMessage();
+            }
+        }
+
+        long[] latencies(Operation operation) {
+            return Arrays.copyOf(latencies[operation.ordinal()], counts[operation.ordinal()]);
+        }
+
+        void addAll(Stats other) {
+            for (Operation operation : Operation.values()) {
+                long[] theirs = other.latencies(operation);
+                for (long nanos : theirs) {
+                    record(operation, nanos);
+                }
+                errors[operation.ordinal()] += other.errors[operation.ordinal()];
+            }
+            if (firstError == null) {
+                firstError = other.firstError;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Opening a ledger (loadExpenses: segment reads plus journal replay and
+// rebuilding the aggregates and date index) and checkpointing a day's worth
+// of new expenses into it (saveExpenses). Checkpoints only write the new
+// rows, so saveExpenses should cost the same for every ledger size.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+    private static final int NEW_ROWS = 1000;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    // Loads and saves use separate copies; only one manager may have a
+    // ledger open at a time
+    private Path loadDirectory;
+    private Path saveDirectory;
+    private Object manager;
+    private List<Object> newExpenses;
+
+    @Setup(Level.Trial)
+    public void open() throws Throwable {
+        loadDirectory = LedgerFixtures.copy(rows);
+        saveDirectory = LedgerFixtures.copy(rows);
+        manager = Ledger.OPEN.invokeExact(saveDirectory);
+        // Dated in the last month of the fixture, like a day of new entries
+        Random random = new Random(rows);
+        newExpenses = new ArrayList<>(NEW_ROWS);
+        for (int i = 0; i < NEW_ROWS; i++) {
+            newExpenses.add(Ledger.NEW_EXPENSE.invokeExact(
+                (1 + random.nextInt(50_000)) / 100.0,
+                LedgerFixtures.CATEGORIES[random.nextInt(LedgerFixtures.CATEGORIES.length)],
+                LedgerFixtures.FIRST_DAY.plusDays(LedgerFixtures.DAYS - 1 - random.nextInt(28)).toString()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        Ledger.CLOSE.invokeExact(manager);
+        LedgerFixtures.delete(loadDirectory);
+        LedgerFixtures.delete(saveDirectory);
+    }
+
+    @Benchmark
+    public int loadExpenses() throws Throwable {
+        Object loaded = Ledger.OPEN.invokeExact(loadDirectory);
+        int count = (int) Ledger.EXPENSE_COUNT.invokeExact(loaded);
+        Ledger.CLOSE.invokeExact(loaded);
+        return count;
+    }
+
+    @Benchmark
+    public void saveExpenses() throws Throwable {
+        Object result = Ledger.ADD_EXPENSES.invokeExact(manager, newExpenses);
+        Ledger.CHECKPOINT.invokeExact(manager);
+    }
+}
@@ -0,0 +1,134 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Report queries against a ledger that is loaded once per trial. The query
+// benchmarks run ExpenseManager.query: a category by month pivot over one
+// year (rows found through the date index), and over the whole ledger with
+// an amount filter (a full, parallel scan) the total alone and grouped by
+// category or by month. The summary benchmarks read the amount sketches:
+// p95 of one category, and the 20 largest expenses of the last year.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    // Length of the getExpensesByDateRange window in days
+    @Param({"31"})
+    public int rangeDays;
+
+    private Path directory;
+    private Object manager;
+    private final String[] rangeStarts = new String[256];
+    private final String[] rangeEnds = new String[256];
+    private int next;
+    private Object yearPivot;
+    private Object amountTotal;
+    private Object amountByCategory;
+    private Object amountByMonth;
+    private String lastYearFirstMonth;
+    private String lastMonth;
+
+    @Setup(Level.Trial)
+    public void open() throws Throwable {
+        directory = LedgerFixtures.copy(rows);
+        manager = Ledger.OPEN.invokeExact(directory);
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < rangeStarts.length; i++) {
+            int start = random.nextInt(LedgerFixtures.DAYS - rangeDays);
+            rangeStarts[i] = LedgerFixtures.FIRST_DAY.plusDays(start).toString();
+            rangeEnds[i] = LedgerFixtures.FIRST_DAY.plusDays(start + rangeDays - 1).toString();
+        }
+        yearPivot = Ledger.newQuery(LedgerFixtures.FIRST_DAY.plusDays(LedgerFixtures.DAYS - 365).toString(),
+            LedgerFixtures.FIRST_DAY.plusDays(LedgerFixtures.DAYS - 1).toString(), 1, 0, "CATEGORY_MONTH");
+        amountTotal = Ledger.newQuery(null, null, 10, 100, "NONE");
+        amountByCategory = Ledger.newQuery(null, null, 10, 100, "CATEGORY");
+        amountByMonth = Ledger.newQuery(null, null, 10, 100, "MONTH");
+        lastYearFirstMonth = LedgerFixtures.FIRST_DAY.plusDays(LedgerFixtures.DAYS - 365).toString().substring(0, 7);
+        lastMonth = LedgerFixtures.FIRST_DAY.plusDays(LedgerFixtures.DAYS - 1).toString().substring(0, 7);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        Ledger.CLOSE.invokeExact(manager);
+        LedgerFixtures.delete(directory);
+    }
+
+    @Benchmark
+    public List<?> getExpensesByDateRange() throws Throwable {
+        int i = next++ & 255;
+        return (List<?>) Ledger.EXPENSES_BY_DATE_RANGE.invokeExact(manager, rangeStarts[i], rangeEnds[i]);
+    }
+
+    @Benchmark
+    public Map<?, ?> getAllCategoryTotals() throws Throwable {
+        return (Map<?, ?>) Ledger.ALL_CATEGORY_TOTALS.invokeExact(manager);
+    }
+
+    @Benchmark
+    public Map<?, ?> getMonthlyTotals() throws Throwable {
+        return (Map<?, ?>) Ledger.MONTHLY_TOTALS.invokeExact(manager);
+    }
+
+    @Benchmark
+    public Object queryYearPivot() throws Throwable {
+        return Ledger.QUERY.invokeExact(manager, yearPivot);
+    }
+
+    @Benchmark
+    public Object queryAmountTotal() throws Throwable {
+        return Ledger.QUERY.invokeExact(manager, amountTotal);
+    }
+
+    @Benchmark
+    public Object queryAmountByCategory() throws Throwable {
+        return Ledger.QUERY.invokeExact(manager, amountByCategory);
+    }
+
+    @Benchmark
+    public Object queryAmountByMonth() throws Throwable {
+        return Ledger.QUERY.invokeExact(manager, amountByMonth);
+    }
+
+    @Benchmark
+    public double categoryPercentile() throws Throwable {
+        Object summary = Ledger.CATEGORY_SUMMARY.invokeExact(manager, nextCategory());
+        return (double) Ledger.SUMMARY_PERCENTILE.invokeExact(summary, 95.0);
+    }
+
+    @Benchmark
+    public List<?> yearLargest() throws Throwable {
+        Object summary = Ledger.MONTH_SUMMARY.invokeExact(manager, lastYearFirstMonth, lastMonth);
+        return (List<?>) Ledger.SUMMARY_LARGEST.invokeExact(summary, 20);
+    }
+
+    @Benchmark
+    public List<?> getAllCategories() throws Throwable {
+        return (List<?>) Ledger.ALL_CATEGORIES.invokeExact(manager);
+    }
+
+    @Benchmark
+    public double getTotalByCategory() throws Throwable {
+        return (double) Ledger.TOTAL_BY_CATEGORY.invokeExact(manager, nextCategory().toUpperCase());
+    }
+
+    // What the category field does on each keystroke
+    @Benchmark
+    public List<?> suggestCategories() throws Throwable {
+        return (List<?>) Ledger.SUGGEST_CATEGORIES.invokeExact(manager, nextCategory().substring(0, 1), 20);
+    }
+
+    private String nextCategory() {
+        return LedgerFixtures.CATEGORIES[(next++ & Integer.MAX_VALUE) % LedgerFixtures.CATEGORIES.length];
+    }
+}
@@ -0,0 +1,127 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Load test for LedgerRegistry hosting many small ledgers. Each thread
+// loops until time is up: it picks a ledger with skewed popularity (a few
+// ledgers get most of the traffic, as with real users), leases it, adds an
+// expense, reads the ledger's total and releases it. At the end it prints
+// the throughput and latency of those visits, how often the ledger was
+// already open, and the heap in use after a GC, which the registry's
+// bounds keep flat however many ledgers there are.
+//
+//   java -cp benchmarks/target/benchmarks.jar bench.RegistryLoad [ledgers] [maxOpen] [threads] [seconds]
+public class RegistryLoad {
+    // Rows the registry may hold; high enough that maxOpen is the bound
+    private static final long MAX_RESIDENT_ROWS = 1L << 30;
+
+    private final Object registry;
+    private final int ledgers;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private RegistryLoad(Object registry, int ledgers) {
+        this.registry = registry;
+        this.ledgers = ledgers;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int ledgers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int maxOpen = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        // Thousands of ledgers coming and going would churn the platform
+        // MBean server
+        System.setProperty("expenses.jmx", "false");
+
+        Path root = Files.createTempDirectory("expense-registry");
+        try {
+            long heapBefore = usedHeap();
+            Object registry = Ledger.OPEN_REGISTRY.invokeExact(root,
+                (Object) Ledger.PARSE_DURABILITY.invokeExact("buffered"), maxOpen, MAX_RESIDENT_ROWS);
+            RegistryLoad load = new RegistryLoad(registry, ledgers);
+            long[][] latencies = new long[threads][];
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int index = i;
+                workers.add(new Thread(() -> latencies[index] = load.run(new Random(index)), "visitor-" + i));
+            }
+            long startedAt = System.nanoTime();
+            workers.forEach(Thread::start);
+            Thread.sleep(seconds * 1000L);
+            load.running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double elapsed = (System.nanoTime() - startedAt) / 1e9;
+            long heapOpen = usedHeap();
+
+            long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            long hits = (long) Ledger.REGISTRY_HITS.invokeExact(registry);
+            long misses = (long) Ledger.REGISTRY_MISSES.invokeExact(registry);
+            System.out.printf("%,d ledgers, at most %d open, %d threads, %.1f s%n", ledgers, maxOpen, threads,
+                elapsed);
+            System.out.printf("%,d visits (%,.0f/s), p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", all.length,
+                all.length / elapsed, percentile(all, 0.50), percentile(all, 0.99), percentile(all, 1.0));
+            System.out.printf("already open %.1f%%, %,d opened from disk, %,d evicted, %d open now%n",
+                100.0 * hits / Math.max(1, hits + misses), misses,
+                (long) Ledger.REGISTRY_EVICTIONS.invokeExact(registry),
+                (int) Ledger.REGISTRY_OPEN_COUNT.invokeExact(registry));
+            System.out.printf("heap in use: %,d KB before, %,d KB with the ledgers open%n", heapBefore >> 10,
+                heapOpen >> 10);
+            Ledger.REGISTRY_CLOSE.invokeExact(registry);
+        } finally {
+            LedgerFixtures.delete(root);
+        }
+    }
+
+    // Latencies of the visits of one thread, in nanoseconds
+    private long[] run(Random random) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        try {
+            while (running.get()) {
+                // Cubing a uniform pick makes low ids far more popular
+                int ledger = (int) (ledgers * Math.pow(random.nextDouble(), 3));
+                String category = LedgerFixtures.CATEGORIES[random.nextInt(LedgerFixtures.CATEGORIES.length)];
+                String date = LedgerFixtures.FIRST_DAY.plusDays(random.nextInt(LedgerFixtures.DAYS)).toString();
+                long start = System.nanoTime();
+                Object lease = Ledger.REGISTRY_OPEN.invokeExact(registry, "ledger-" + ledger);
+                try {
+                    Object manager = (Object) Ledger.LEASE_MANAGER.invokeExact(lease);
+                    int row = (int) Ledger.ADD_EXPENSE.invokeExact(manager, (1 + random.nextInt(50_000)) / 100.0,
+                        category, date);
+                    double total = (double) Ledger.TOTAL_EXPENSES.invokeExact(manager);
+                } finally {
+                    Ledger.LEASE_CLOSE.invokeExact(lease);
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, 2 * count);
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
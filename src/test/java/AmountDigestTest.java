@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AmountDigestTest {
+    private static final double[] QUANTILES = {0.0001, 0.001, 0.01, 0.05, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99,
+        0.999, 0.9999};
+
+    @Test
+    void quantilesStayWithinRankBounds() {
+        Random random = new Random(6);
+        checkQuantiles("uniform", 100_000, () -> 1 + random.nextInt(1_000_000));
+        checkQuantiles("skewed", 100_000, () -> Math.round(Math.exp(random.nextGaussian() * 2 + 8)));
+        checkQuantiles("few values", 100_000, () -> 100 * (1 + random.nextInt(5)));
+        checkQuantiles("wide", 50_000, () -> random.nextLong() >> 12);
+        checkQuantiles("ascending", 50_000, new LongSupplier() {
+            long next;
+
+            @Override
+            public long getAsLong() {
+                return next++;
+            }
+        });
+    }
+
+    @Test
+    void fewValuesAreExact() {
+        // Too few to merge any two into a centroid, so every quantile is a
+        // value; this also checks the radix sort, on values differing in
+        // any byte and of either sign
+        Random random = new Random(7);
+        for (int trial = 0; trial < 500; trial++) {
+            int n = 1 + random.nextInt(20);
+            int bits = 1 + random.nextInt(52);
+            long[] values = new long[n];
+            AmountDigest digest = new AmountDigest();
+            for (int i = 0; i < n; i++) {
+                values[i] = (random.nextLong() >> (64 - bits)) + (trial % 3 == 0 ? 1L << 40 : 0);
+                digest.add(values[i]);
+            }
+            digest.flush();
+            Arrays.sort(values);
+            assertEquals(values[0], digest.min());
+            assertEquals(values[n - 1], digest.max());
+            for (int i = 0; i < n; i++) {
+                assertEquals(values[i], digest.quantile((i + 0.5) / n), 0, "value " + i + " of " + n);
+            }
+        }
+    }
+
+    @Test
+    void mergedDigestsMatchBounds() {
+        Random random = new Random(8);
+        long[] values = new long[60_000];
+        AmountDigest merged = new AmountDigest();
+        AmountDigest part = new AmountDigest();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.round(Math.exp(random.nextGaussian() + 6));
+            part.add(values[i]);
+            if (i % 7_000 == 6_999) {
+                merged.addAll(part);
+                part = new AmountDigest();
+            }
+        }
+        merged.addAll(part);
+        merged.flush();
+        assertEquals(values.length, merged.count());
+        checkBounds("merged", values, merged);
+    }
+
+    private static void checkQuantiles(String name, int n, LongSupplier values) {
+        long[] added = new long[n];
+        AmountDigest digest = new AmountDigest();
+        for (int i = 0; i < n; i++) {
+            added[i] = values.getAsLong();
+            digest.add(added[i]);
+        }
+        digest.flush();
+        checkBounds(name, added, digest);
+    }
+
+    // Each estimate must lie among the values whose rank is within the
+    // size a centroid may have at q, as the k1 scale function allows
+    private static void checkBounds(String name, long[] values, AmountDigest digest) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        assertTrue(digest.centroidCount() <= AmountDigest.COMPRESSION, name + ": " + digest.centroidCount());
+        assertEquals(sorted[0], digest.quantile(0), 0, name);
+        assertEquals(sorted[n - 1], digest.quantile(1), 0, name);
+        for (double q : QUANTILES) {
+            double estimate = digest.quantile(q);
+            double error = 2 * Math.PI / AmountDigest.COMPRESSION * Math.sqrt(q * (1 - q)) + 1.0 / n;
+            int low = (int) Math.max(0, Math.floor((q - error) * n));
+            int high = (int) Math.min(n - 1, Math.ceil((q + error) * n));
+            assertTrue(estimate >= sorted[low] && estimate <= sorted[high],
+                name + " q=" + q + ": " + estimate + " not in [" + sorted[low] + ", " + sorted[high] + "]");
+        }
+    }
+}
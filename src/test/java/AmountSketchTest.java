@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AmountSketchTest {
+    @Test
+    void largestMatchFullSort() {
+        Random random = new Random(9);
+        for (int n : new int[] {0, 1, 7, AmountSketch.MAX_LARGEST, AmountSketch.MAX_LARGEST + 1, 5_000}) {
+            // Few distinct amounts for even n, so ties must go to the earlier row
+            long[] cents = new long[n];
+            AmountSketch sketch = new AmountSketch();
+            for (int row = 0; row < n; row++) {
+                cents[row] = random.nextInt(n % 2 == 0 ? 50 : 1_000_000);
+                sketch.add(cents[row], row);
+            }
+            assertArrayEquals(largest(cents), sketch.largestRows(), n + " rows");
+            checkMoments(cents, sketch);
+        }
+    }
+
+    @Test
+    void mergedSketchesMatchFullSort() {
+        Random random = new Random(10);
+        int n = 20_000;
+        long[] cents = new long[n];
+        List<AmountSketch> parts = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            parts.add(new AmountSketch());
+        }
+        for (int row = 0; row < n; row++) {
+            cents[row] = random.nextInt(row % 3 == 0 ? 100 : 10_000_000);
+            parts.get(random.nextInt(parts.size())).add(cents[row], row);
+        }
+
+        AmountSketch merged = new AmountSketch();
+        for (AmountSketch part : parts) {
+            merged.addAll(part);
+        }
+        int[] expected = largest(cents);
+        assertArrayEquals(expected, merged.largestRows());
+        checkMoments(cents, merged);
+
+        // As a summary reads them, largest first
+        AmountSummary summary = new AmountSummary(parts,
+            row -> new Expense(ExpenseStore.toAmount(cents[row]), "Groceries", "2024-01-01"));
+        assertArrayEquals(expected, summary.getLargestRows());
+        List<Expense> top = summary.getLargest(10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(ExpenseStore.toAmount(cents[expected[i]]), top.get(i).getAmount(), 0);
+        }
+        assertEquals(n, summary.getCount());
+        assertEquals(Arrays.stream(cents).sum(), summary.getTotalCents());
+    }
+
+    // Rows of the MAX_LARGEST largest amounts, largest first and of equal
+    // amounts the earliest first
+    private static int[] largest(long[] cents) {
+        Integer[] rows = new Integer[cents.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        Arrays.sort(rows, Comparator.<Integer>comparingLong(row -> -cents[row]).thenComparingInt(row -> row));
+        return Arrays.stream(rows).limit(AmountSketch.MAX_LARGEST).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void checkMoments(long[] cents, AmountSketch sketch) {
+        long total = Arrays.stream(cents).sum();
+        double mean = cents.length == 0 ? 0 : (double) total / cents.length;
+        double squares = 0;
+        for (long value : cents) {
+            squares += (value - mean) * (value - mean);
+        }
+        assertEquals(cents.length, sketch.count());
+        assertEquals(total, sketch.totalCents());
+        assertEquals(mean, sketch.mean(), 1e-9 * Math.max(1, mean));
+        assertEquals(cents.length == 0 ? 0 : squares / cents.length, sketch.variance(),
+            1e-9 * Math.max(1, squares / Math.max(1, cents.length)));
+    }
+}
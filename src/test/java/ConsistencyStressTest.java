@@ -0,0 +1,200 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Concurrent use of one ExpenseManager. Writer threads add expenses (single
+// adds and batches) while reader threads check, on every query, that what
+// they see is a consistent state:
+//
+//   - the total lies between the cents of adds that had returned before
+//     the query and the cents of adds that had started after it, so no add
+//     is lost, seen twice or seen before it was made
+//   - the category totals and the monthly totals each add up to a total in
+//     that same window
+//   - a date range covering every row returns between the row counts seen
+//     before and after it, and so does the amount summary of every month,
+//     whose total must also lie in the cents window
+//
+// At the end the totals must equal the adds exactly, before and after
+// reopening the ledger.
+class ConsistencyStressTest {
+    private static final long RUN_MILLIS = 2_000;
+    private static final String[] CATEGORIES = {"Groceries", "Rent", "Coffee", "Travel", "Utilities", "Books"};
+    private static final LocalDate FIRST_DAY = LocalDate.of(2015, 1, 1);
+    private static final int DAYS = 3652;
+    private static final String FIRST_DATE = FIRST_DAY.toString();
+    private static final String LAST_DATE = FIRST_DAY.plusDays(DAYS - 1).toString();
+    private static final String FIRST_MONTH = FIRST_DATE.substring(0, 7);
+    private static final String LAST_MONTH = LAST_DATE.substring(0, 7);
+
+    @TempDir
+    Path directory;
+
+    private ExpenseManager manager;
+    // Cents and rows of adds that have started / returned
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong startedRows = new AtomicLong();
+    private final AtomicLong committedRows = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicLong reads = new AtomicLong();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void readersAlwaysSeeConsistentTotals() throws Exception {
+        int readers = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        manager = new ExpenseManager(directory, Durability.BUFFERED);
+        try {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Random random = new Random(i);
+                threads.add(new Thread(() -> guard(() -> write(random)), "writer-" + i));
+            }
+            for (int i = 0; i < readers; i++) {
+                threads.add(new Thread(() -> guard(this::read), "reader-" + i));
+            }
+            threads.forEach(Thread::start);
+            Thread.sleep(RUN_MILLIS);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            checkFinal(manager, "in memory");
+        } finally {
+            manager.close();
+        }
+        try (ExpenseManager reopened = new ExpenseManager(directory, Durability.BUFFERED)) {
+            checkFinal(reopened, "after reopening");
+        }
+
+        assertTrue(failures.isEmpty(), failures.size() + " violations, first: "
+            + failures.subList(0, Math.min(20, failures.size())));
+        assertTrue(reads.get() > 0 && committedRows.get() > 0, "nothing was read or added");
+    }
+
+    private void write(Random random) {
+        while (running.get()) {
+            if (random.nextInt(100) == 0) {
+                int count = 1 + random.nextInt(2_000);
+                List<Expense> batch = new ArrayList<>(count);
+                long cents = 0;
+                for (int i = 0; i < count; i++) {
+                    long amount = 1 + random.nextInt(50_000);
+                    cents += amount;
+                    batch.add(new Expense(amount / 100.0, category(random), date(random)));
+                }
+                begin(cents, count);
+                assertEquals(count, manager.addExpenses(batch).getAdded());
+                end(cents, count);
+            } else {
+                long amount = 1 + random.nextInt(50_000);
+                begin(amount, 1);
+                manager.addExpense(amount / 100.0, category(random), date(random));
+                end(amount, 1);
+            }
+        }
+    }
+
+    private void begin(long cents, int rows) {
+        started.addAndGet(cents);
+        startedRows.addAndGet(rows);
+    }
+
+    private void end(long cents, int rows) {
+        committed.addAndGet(cents);
+        committedRows.addAndGet(rows);
+    }
+
+    private void read() {
+        long iteration = 0;
+        while (running.get()) {
+            long low = committed.get();
+            long lowRows = committedRows.get();
+            long total = manager.getTotalExpensesCents();
+            long categories = sum(manager.getAllCategoryTotals());
+            long months = sum(manager.getMonthlyTotals());
+            int count = manager.getExpenseCount();
+            int rangeRows = -1;
+            AmountSummary summary = null;
+            if (iteration++ % 64 == 0) {
+                rangeRows = manager.getExpensesByDateRange(FIRST_DATE, LAST_DATE).size();
+                summary = manager.getMonthSummary(FIRST_MONTH, LAST_MONTH);
+            }
+            long high = started.get();
+            long highRows = startedRows.get();
+
+            check(total, low, high, "total");
+            check(categories, low, high, "sum of category totals");
+            check(months, low, high, "sum of monthly totals");
+            check(count, lowRows, highRows, "expense count");
+            if (summary != null) {
+                check(rangeRows, lowRows, highRows, "rows in full date range");
+                check(summary.getCount(), lowRows, highRows, "rows in month summary");
+                check(summary.getTotalCents(), low, high, "month summary total");
+            }
+            reads.incrementAndGet();
+        }
+    }
+
+    private void checkFinal(ExpenseManager ledger, String when) {
+        long expected = committed.get();
+        long expectedRows = committedRows.get();
+        check(ledger.getTotalExpensesCents(), expected, expected, "final total " + when);
+        check(sum(ledger.getAllCategoryTotals()), expected, expected, "final sum of category totals " + when);
+        check(sum(ledger.getMonthlyTotals()), expected, expected, "final sum of monthly totals " + when);
+        check(ledger.getExpenseCount(), expectedRows, expectedRows, "final expense count " + when);
+        check(ledger.getExpensesByDateRange(FIRST_DATE, LAST_DATE).size(), expectedRows, expectedRows,
+            "final rows in full date range " + when);
+        AmountSummary summary = ledger.getMonthSummary(FIRST_MONTH, LAST_MONTH);
+        check(summary.getCount(), expectedRows, expectedRows, "final rows in month summary " + when);
+        check(summary.getTotalCents(), expected, expected, "final month summary total " + when);
+    }
+
+    private void check(long value, long low, long high, String what) {
+        if (value < low || value > high) {
+            failures.add(String.format("%s: %d outside [%d, %d]", what, value, low, high));
+        }
+    }
+
+    private void guard(Runnable action) {
+        try {
+            action.run();
+        } catch (Throwable e) {
+            failures.add(Thread.currentThread().getName() + ": " + e);
+            running.set(false);
+        }
+    }
+
+    // Totals are exact cents reported as doubles; rounding each one back
+    // recovers the cents
+    private static long sum(Map<String, Double> totals) {
+        long sum = 0;
+        for (double total : totals.values()) {
+            sum += Math.round(total * 100);
+        }
+        return sum;
+    }
+
+    private static String category(Random random) {
+        return CATEGORIES[random.nextInt(CATEGORIES.length)];
+    }
+
+    private static String date(Random random) {
+        return FIRST_DAY.plusDays(random.nextInt(DAYS)).toString();
+    }
+}
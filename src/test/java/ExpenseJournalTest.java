@@ -0,0 +1,172 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpenseJournalTest {
+    private static final int HEADER_SIZE = 12;
+    private static final List<Expense> EXPENSES = Arrays.asList(
+        new Expense(12.5, "Groceries", "2024-01-31"),
+        new Expense(900, "Rent", "2024-02-01"),
+        new Expense(3.2, "Coffee", "2024-02-03"));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysWrittenRecords() throws IOException {
+        writeLog(EXPENSES);
+
+        ExpenseStore store = load();
+        assertEquals(EXPENSES, rows(store));
+
+        // Appends after the replayed records
+        ExpenseJournal journal = journal();
+        journal.load(new ExpenseStore());
+        Expense added = new Expense(7, "Coffee", "2024-02-04");
+        journal.write(Arrays.asList(added));
+        journal.close();
+        assertEquals(4, load().size());
+        assertEquals(added, load().get(3));
+    }
+
+    @Test
+    void dropsTruncatedTail() throws IOException {
+        writeLog(EXPENSES);
+        long intact = Files.size(log()) - recordSize(EXPENSES.get(2));
+        // A crash in the middle of appending the last record
+        try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(log()) - 5);
+        }
+
+        ExpenseStore store = load();
+        assertEquals(EXPENSES.subList(0, 2), rows(store));
+        assertEquals(intact, Files.size(log()));
+    }
+
+    @Test
+    void dropsCorruptTail() throws IOException {
+        writeLog(EXPENSES);
+        long intact = Files.size(log()) - recordSize(EXPENSES.get(2));
+        byte[] bytes = Files.readAllBytes(log());
+        bytes[bytes.length - 3] ^= 0x40;
+        Files.write(log(), bytes);
+
+        ExpenseStore store = load();
+        assertEquals(EXPENSES.subList(0, 2), rows(store));
+        assertEquals(intact, Files.size(log()));
+
+        // New records go where the corrupt one was
+        ExpenseJournal journal = journal();
+        journal.load(new ExpenseStore());
+        journal.write(EXPENSES.subList(2, 3));
+        journal.close();
+        assertEquals(EXPENSES, rows(load()));
+    }
+
+    @Test
+    void rejectsInvalidRecordWithValidChecksum() throws IOException {
+        writeLog(EXPENSES.subList(0, 1));
+        appendRecord(new Expense(12, "Rent", "2024-13-01"));
+
+        assertThrows(IOException.class, this::load);
+    }
+
+    @Test
+    void replaysAmountsOutsideTodaysLimits() throws IOException {
+        // Accepted by earlier versions, so never rejected on replay
+        writeLog(EXPENSES.subList(0, 1));
+        appendRecord(new Expense(0.001, "Rent", "2024-02-01"));
+        appendRecord(new Expense(1e9, "Rent", "2024-02-01"));
+        appendRecord(new Expense(Double.NaN, "Rent", "2024-02-01"));
+
+        ExpenseStore store = load();
+        assertEquals(4, store.size());
+        assertEquals(0, store.cents(1));
+        assertEquals(100_000_000_000L, store.cents(2));
+        assertEquals(0, store.cents(3));
+    }
+
+    private void appendRecord(Expense expense) throws IOException {
+        byte[] payload = payload(expense);
+        try (DataOutputStream out = new DataOutputStream(
+                Files.newOutputStream(log(), StandardOpenOption.APPEND))) {
+            out.writeInt(payload.length);
+            out.writeInt(checksum(payload));
+            out.write(payload);
+        }
+    }
+
+    private ExpenseJournal journal() {
+        return new ExpenseJournal(directory.resolve("expenses.segments"), directory.resolve("expenses.ledger"), log());
+    }
+
+    private Path log() {
+        return directory.resolve("expenses.log");
+    }
+
+    private void writeLog(List<Expense> expenses) throws IOException {
+        ExpenseJournal journal = journal();
+        journal.load(new ExpenseStore());
+        journal.write(expenses);
+        journal.flush();
+        journal.close();
+        assertEquals(HEADER_SIZE + expenses.stream().mapToLong(ExpenseJournalTest::recordSize).sum(),
+            Files.size(log()));
+    }
+
+    private ExpenseStore load() throws IOException {
+        ExpenseStore store = new ExpenseStore();
+        ExpenseJournal journal = journal();
+        try {
+            journal.load(store);
+        } finally {
+            journal.close();
+        }
+        return store;
+    }
+
+    private static List<Expense> rows(ExpenseStore store) {
+        Expense[] rows = new Expense[store.size()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = store.get(row);
+        }
+        return Arrays.asList(rows);
+    }
+
+    // Length and checksum, then the payload
+    private static long recordSize(Expense expense) {
+        try {
+            return 8 + payload(expense).length;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] payload(Expense expense) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeDouble(expense.getAmount());
+        out.writeUTF(expense.getCategory());
+        out.writeUTF(expense.getDate());
+        return bytes.toByteArray();
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
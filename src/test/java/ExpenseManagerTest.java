@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpenseManagerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void failedOpenLeavesLedgerUntouched() throws IOException {
+        List<Expense> expenses = new ArrayList<>();
+        try (ExpenseManager manager = new ExpenseManager(directory)) {
+            for (int i = 0; i < 50; i++) {
+                manager.addExpense(1 + i, "Groceries", "2024-01-" + (10 + i % 20));
+            }
+            manager.checkpoint();
+            expenses.addAll(manager.getAllExpenses());
+        }
+        Path log = directory.resolve("expenses.log");
+        byte[] intact = Files.readAllBytes(log);
+        // A record whose checksum is right but whose date is not
+        appendRecord(log, new Expense(5, "Rent", "2024-13-01"));
+
+        assertThrows(IOException.class, () -> new ExpenseManager(directory));
+        CompletionException failed = assertThrows(CompletionException.class,
+            () -> ExpenseManager.openAsync(directory, Durability.BUFFERED).join());
+        assertInstanceOf(IOException.class, failed.getCause());
+
+        // Once the log is repaired, nothing was lost
+        Files.write(log, intact);
+        try (ExpenseManager manager = new ExpenseManager(directory)) {
+            assertEquals(expenses, new ArrayList<>(manager.getAllExpenses()));
+        }
+    }
+
+    private static void appendRecord(Path log, Expense expense) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeDouble(expense.getAmount());
+        payload.writeUTF(expense.getCategory());
+        payload.writeUTF(expense.getDate());
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(log, StandardOpenOption.APPEND))) {
+            out.writeInt(bytes.size());
+            out.writeInt((int) crc.getValue());
+            out.write(bytes.toByteArray());
+        }
+    }
+}
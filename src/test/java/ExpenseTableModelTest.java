@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpenseTableModelTest {
+    private static final String[] CATEGORIES = {"Rent", "Groceries", "Coffee", "Books"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sortsMatchFullSort() throws IOException {
+        Random random = new Random(11);
+        try (ExpenseManager manager = new ExpenseManager(directory, Durability.BUFFERED)) {
+            add(manager, random, 500);
+            ExpenseTableModel model = new ExpenseTableModel(manager);
+            model.toggleSort(ExpenseTableModel.AMOUNT_COLUMN);
+            assertArrayEquals(expected(manager, Comparator.comparingLong(manager::getAmountCents)), view(model));
+            model.toggleSort(ExpenseTableModel.AMOUNT_COLUMN);
+            int[] descending = expected(manager, Comparator.comparingLong(manager::getAmountCents));
+            assertArrayEquals(reverse(descending), view(model));
+
+            // Sorted again, over the buffers of the first sort, with more rows
+            model.toggleSort(ExpenseTableModel.CATEGORY_COLUMN);
+            add(manager, random, 300);
+            model.rowsAdded();
+            assertArrayEquals(expected(manager, Comparator.comparing(manager::getCategory)), view(model));
+            model.toggleSort(ExpenseTableModel.AMOUNT_COLUMN);
+            assertArrayEquals(expected(manager, Comparator.comparingLong(manager::getAmountCents)), view(model));
+
+            model.toggleSort(ExpenseTableModel.DATE_COLUMN);
+            assertArrayEquals(expected(manager, Comparator.comparingInt(manager::getEpochDay)), view(model));
+        }
+    }
+
+    @Test
+    void rowInDateOrderIsBoundsChecked() throws IOException {
+        try (ExpenseManager manager = new ExpenseManager(directory, Durability.BUFFERED)) {
+            add(manager, new Random(12), 10);
+            manager.getRowInDateOrder(9);
+            assertThrows(IllegalArgumentException.class, () -> manager.getRowInDateOrder(10));
+            assertThrows(IllegalArgumentException.class, () -> manager.getRowInDateOrder(-1));
+        }
+    }
+
+    private static void add(ExpenseManager manager, Random random, int rows) {
+        for (int i = 0; i < rows; i++) {
+            // Amounts spanning more than 31 bits of cents, with ties
+            double amount = i % 5 == 0 ? 30_000_000 : (1 + random.nextInt(i % 2 == 0 ? 20 : 1_000_000)) / 100.0;
+            manager.addExpense(amount, CATEGORIES[random.nextInt(CATEGORIES.length)],
+                ExpenseStore.formatDate(19_000 + random.nextInt(60)));
+        }
+    }
+
+    // Rows in the order of the key, and of equal keys in the order added
+    private static int[] expected(ExpenseManager manager, Comparator<Integer> byKey) {
+        Integer[] rows = new Integer[manager.getExpenseCount()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        Arrays.sort(rows, byKey.thenComparingInt(row -> row));
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] view(ExpenseTableModel model) {
+        int[] rows = new int[model.getRowCount()];
+        for (int viewRow = 0; viewRow < rows.length; viewRow++) {
+            rows[viewRow] = model.toModelRow(viewRow);
+        }
+        return rows;
+    }
+
+    private static int[] reverse(int[] rows) {
+        int[] reversed = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            reversed[i] = rows[rows.length - 1 - i];
+        }
+        return reversed;
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LedgerArchiveTest {
+    private static final String[] CATEGORIES = {"Groceries", "Rent", "Coffee", "Café"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresExportedLedger() throws IOException {
+        List<Expense> expenses = new ArrayList<>();
+        Path from = Files.createDirectories(directory.resolve("from"));
+        Path to = Files.createDirectories(directory.resolve("to"));
+        try (ExpenseManager manager = new ExpenseManager(from, Durability.BUFFERED)) {
+            Random random = new Random(1);
+            for (int i = 0; i < 500; i++) {
+                String date = ExpenseStore.formatDate(19_700 + random.nextInt(90));
+                manager.addExpense((1 + random.nextInt(50_000)) / 100.0, CATEGORIES[i % CATEGORIES.length], date);
+            }
+            expenses.addAll(manager.getAllExpenses());
+            assertEquals(500, LedgerArchive.export(manager, archive()));
+        }
+
+        try (ExpenseManager manager = new ExpenseManager(to, Durability.BUFFERED)) {
+            ImportResult result = LedgerArchive.restore(archive(), manager);
+            assertEquals(500, result.getAdded());
+            assertTrue(result.getErrors().isEmpty());
+            assertEquals(expenses, new ArrayList<>(manager.getAllExpenses()));
+        }
+        // And the restored rows were journaled
+        try (ExpenseManager manager = new ExpenseManager(to, Durability.BUFFERED)) {
+            assertEquals(expenses, new ArrayList<>(manager.getAllExpenses()));
+        }
+    }
+
+    @Test
+    void readsBackRowsOverSeveralBlocks() throws IOException {
+        int rows = LedgerArchive.BLOCK_ROWS * 2 + 123;
+        Random random = new Random(2);
+        int[] days = new int[rows];
+        long[] cents = new long[rows];
+        String[] categories = new String[rows];
+        try (LedgerArchive.Writer writer = new LedgerArchive.Writer(Files.newOutputStream(archive()))) {
+            for (int i = 0; i < rows; i++) {
+                // Dates in order in the first block, shuffled after it
+                days[i] = i < LedgerArchive.BLOCK_ROWS ? 19_000 + i / 100 : 19_000 + random.nextInt(3650);
+                cents[i] = 1 + random.nextInt(i % 7 == 0 ? Integer.MAX_VALUE : 50_000);
+                categories[i] = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                writer.add(days[i], cents[i], categories[i]);
+            }
+        }
+
+        try (LedgerArchive.Reader reader = new LedgerArchive.Reader(Files.newInputStream(archive()))) {
+            int row = 0;
+            while (reader.nextBlock()) {
+                for (int i = 0; i < reader.blockSize(); i++, row++) {
+                    assertEquals(days[row], reader.epochDay(i));
+                    assertEquals(cents[row], reader.cents(i));
+                    assertEquals(categories[row], reader.category(i));
+                }
+            }
+            assertEquals(rows, row);
+            assertFalse(reader.nextBlock());
+        }
+    }
+
+    @Test
+    void rejectsFlippedChecksumByte() throws IOException {
+        writeArchive(100);
+        byte[] bytes = Files.readAllBytes(archive());
+        // The first block's CRC follows the 8-byte header, its row count
+        // and its payload length
+        bytes[8 + 8] ^= 0x01;
+        Files.write(archive(), bytes);
+
+        IOException e = assertThrows(IOException.class, () -> readAll(archive()));
+        assertTrue(e.getMessage().startsWith("Checksum mismatch"), e.getMessage());
+    }
+
+    @Test
+    void rejectsTruncatedEndMarker() throws IOException {
+        writeArchive(100);
+        byte[] bytes = Files.readAllBytes(archive());
+        // The end marker is a 12-byte block header and a one-byte row count
+        for (int cut : new int[] {1, 13}) {
+            Files.write(archive(), Arrays.copyOf(bytes, bytes.length - cut));
+            IOException e = assertThrows(IOException.class, () -> readAll(archive()));
+            assertTrue(e.getMessage().startsWith("Truncated archive after 100 rows"), e.getMessage());
+        }
+    }
+
+    private Path archive() {
+        return directory.resolve("ledger.archive");
+    }
+
+    private void writeArchive(int rows) throws IOException {
+        try (LedgerArchive.Writer writer = new LedgerArchive.Writer(Files.newOutputStream(archive()))) {
+            for (int i = 0; i < rows; i++) {
+                writer.add(19_000 + i / 10, 100 + i, CATEGORIES[i % CATEGORIES.length]);
+            }
+        }
+    }
+
+    private static long readAll(Path file) throws IOException {
+        try (LedgerArchive.Reader reader = new LedgerArchive.Reader(Files.newInputStream(file))) {
+            while (reader.nextBlock()) {
+                // Only the checks matter
+            }
+            return reader.getRows();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LedgerConverterTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void convertsRowsOutsideTodaysLimits() throws IOException {
+        // All of these could be saved by the original app
+        writeLegacy(Arrays.asList(
+            new Expense(12.5, "Groceries", "2024-01-31"),
+            new Expense(0.001, "Coffee", "2024-02-01"),
+            new Expense(1e9, "Rent", "2024-02-01"),
+            new Expense(Double.NaN, "Rent", "2024-02-02")));
+
+        ImportResult result = LedgerConverter.convert(legacy(), directory.resolve("expenses.ledger"));
+        assertEquals(4, result.getAdded());
+        assertEquals(0, result.getErrorCount());
+
+        try (ExpenseManager manager = new ExpenseManager(directory)) {
+            List<Expense> expenses = new ArrayList<>(manager.getAllExpenses());
+            assertEquals(Arrays.asList(
+                new Expense(12.5, "Groceries", "2024-01-31"),
+                new Expense(0, "Coffee", "2024-02-01"),
+                new Expense(1e9, "Rent", "2024-02-01"),
+                new Expense(0, "Rent", "2024-02-02")), expenses);
+        }
+    }
+
+    @Test
+    void skipsUnreadableRowsAndKeepsTheRest() throws IOException {
+        writeLegacy(Arrays.asList(
+            new Expense(12.5, "Groceries", "2024-01-31"),
+            new Expense(5, "Rent", "2024-13-01"),
+            null,
+            new Expense(3.2, "Coffee", "2024-02-03")));
+
+        // Converted on first open, without losing the legacy file
+        try (ExpenseManager manager = new ExpenseManager(directory)) {
+            assertEquals(Arrays.asList(
+                new Expense(12.5, "Groceries", "2024-01-31"),
+                new Expense(3.2, "Coffee", "2024-02-03")), new ArrayList<>(manager.getAllExpenses()));
+            assertEquals(2, manager.getMetrics().getRowsRejected());
+        }
+        assertTrue(Files.exists(legacy()));
+
+        ImportResult result = LedgerConverter.convert(legacy(), directory.resolve("converted.ledger"));
+        assertEquals(2, result.getAdded());
+        assertEquals(2, result.getErrorCount());
+        assertEquals(1, result.getErrors().get(0).getRow());
+        assertEquals(2, result.getErrors().get(1).getRow());
+    }
+
+    private Path legacy() {
+        return directory.resolve("expenses.dat");
+    }
+
+    private void writeLegacy(List<Expense> expenses) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(legacy()))) {
+            out.writeObject(new ArrayList<>(expenses));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LedgerSegmentsTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void checkpointNeverShrinksSnapshot() throws IOException {
+        ExpenseStore store = store(50);
+        new LedgerSegments(directory).checkpoint(store, 50, 1);
+
+        // Over a snapshot that was never loaded
+        assertThrows(IOException.class, () -> new LedgerSegments(directory).checkpoint(store(1), 1, 2));
+
+        // With fewer rows than the loaded snapshot
+        LedgerSegments segments = new LedgerSegments(directory);
+        segments.load(new ExpenseStore());
+        assertThrows(IOException.class, () -> segments.checkpoint(store(1), 1, 2));
+
+        ExpenseStore reloaded = new ExpenseStore();
+        assertEquals(1, new LedgerSegments(directory).load(reloaded));
+        assertEquals(50, reloaded.size());
+        for (int row = 0; row < 50; row++) {
+            assertEquals(store.get(row), reloaded.get(row));
+        }
+    }
+
+    @Test
+    void checkpointWritesOnlyNewRows() throws IOException {
+        ExpenseStore store = store(80);
+        LedgerSegments segments = new LedgerSegments(directory);
+        segments.checkpoint(store, 30, 1);
+        segments.checkpoint(store, 80, 2);
+
+        ExpenseStore reloaded = new ExpenseStore();
+        assertEquals(2, new LedgerSegments(directory).load(reloaded));
+        assertEquals(80, reloaded.size());
+        for (int row = 0; row < 80; row++) {
+            assertEquals(store.get(row), reloaded.get(row));
+        }
+    }
+
+    private static ExpenseStore store(int rows) {
+        ExpenseStore store = new ExpenseStore();
+        for (int row = 0; row < rows; row++) {
+            store.add(19_700 + row % 70, 100 + row, row % 3 == 0 ? "Rent" : "Groceries");
+        }
+        return store;
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LedgerServerTest {
+    @TempDir
+    Path directory;
+
+    private ExpenseManager manager;
+    private LedgerServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        manager = new ExpenseManager(directory);
+        server = new LedgerServer(manager, 0);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.stop();
+        manager.close();
+    }
+
+    @Test
+    void refusesBodiesOverLimit() throws IOException {
+        String expense = "{\"amount\": 12.5, \"category\": \"Groceries\", \"date\": \"2024-01-31\"}";
+        assertEquals("HTTP/1.1 201 Created", post("Content-Length: " + expense.length() + "\r\n", expense));
+
+        // Refused on the declared length alone, before any body is sent
+        assertEquals("HTTP/1.1 413 Request Entity Too Large",
+            post("Content-Length: " + (LedgerServer.MAX_BODY_BYTES + 1L) + "\r\n", ""));
+
+        // Or once a chunked body grows past it
+        StringBuilder chunks = new StringBuilder();
+        String chunk = new String(new char[1 << 16]).replace('\0', ' ');
+        for (int sent = 0; sent <= LedgerServer.MAX_BODY_BYTES; sent += chunk.length()) {
+            chunks.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+        }
+        chunks.append("0\r\n\r\n");
+        assertEquals("HTTP/1.1 413 Request Entity Too Large",
+            post("Transfer-Encoding: chunked\r\n", chunks.toString()));
+
+        assertEquals(1, manager.getExpenseCount());
+    }
+
+    // Sends a POST /expenses and returns the response's status line
+    private String post(String headers, String body) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /expenses HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" + headers + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+            try {
+                out.write(body.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } catch (IOException e) {
+                // The server may answer and close before the whole body is sent
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.US_ASCII));
+            return in.readLine();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoneyKernelsTest {
+    private static final int ROWS = 5_000;
+    private static final int CATEGORIES = 7;
+    private static final int FIRST_DAY = 19_000;
+    private static final int DAYS = 400;
+
+    @Test
+    void kernelsMatchPlainLoop() {
+        Random random = new Random(3);
+        int[] days = new int[ROWS];
+        long[] cents = new long[ROWS];
+        int[] ids = new int[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            days[i] = FIRST_DAY + random.nextInt(DAYS);
+            // Mostly small amounts, with some near the top of the long range
+            cents[i] = i % 97 == 0 ? Long.MAX_VALUE / ROWS - random.nextInt(1000) : random.nextInt(100_000);
+            ids[i] = random.nextInt(CATEGORIES);
+        }
+
+        for (int trial = 0; trial < 200; trial++) {
+            int startDay = FIRST_DAY - 10 + random.nextInt(DAYS + 20);
+            int endDay = startDay - 5 + random.nextInt(DAYS / 2);
+            long minCents = trial % 5 == 0 ? Long.MIN_VALUE : random.nextInt(50_000);
+            long maxCents = trial % 7 == 0 ? Long.MAX_VALUE : minCents - 100 + random.nextInt(60_000);
+            int[] selected = new int[CATEGORIES];
+            for (int id = 0; id < CATEGORIES; id++) {
+                selected[id] = random.nextInt(4) == 0 ? 0 : 1;
+            }
+            MoneyKernels.Filter filter = new MoneyKernels.Filter(startDay, endDay, minCents, maxCents, selected);
+            int from = random.nextInt(ROWS);
+            int to = from + random.nextInt(ROWS - from + 1);
+            check(filter, startDay, endDay, minCents, maxCents, selected, days, cents, ids, from, to);
+        }
+
+        int[] all = new int[CATEGORIES];
+        Arrays.fill(all, 1);
+        check(MoneyKernels.Filter.all(CATEGORIES), Integer.MIN_VALUE, Integer.MAX_VALUE,
+            Long.MIN_VALUE, Long.MAX_VALUE, all, days, cents, ids, 0, ROWS);
+    }
+
+    @Test
+    void overflowingSumThrows() {
+        int[] days = {FIRST_DAY, FIRST_DAY, FIRST_DAY};
+        long[] cents = {Long.MAX_VALUE / 2, Long.MAX_VALUE / 2, 2};
+        int[] ids = {0, 0, 0};
+        MoneyKernels.Filter filter = MoneyKernels.Filter.all(1);
+
+        long[] totals = new long[2];
+        MoneyKernels.sumMatching(filter, days, cents, ids, 0, 2, totals);
+        assertEquals(Long.MAX_VALUE - 1, totals[0]);
+        assertThrows(ArithmeticException.class,
+            () -> MoneyKernels.sumMatching(filter, days, cents, ids, 0, 3, new long[2]));
+        assertThrows(ArithmeticException.class,
+            () -> MoneyKernels.sumByCategory(filter, days, cents, ids, 0, 3, new long[1], new int[1], new long[2]));
+        assertThrows(ArithmeticException.class, () -> MoneyKernels.sumByDay(filter, days, cents, ids, 0, 3,
+            FIRST_DAY, new long[1], new int[1], new long[2]));
+        // Or when a call's sum overflows the totals of earlier calls
+        assertThrows(ArithmeticException.class,
+            () -> MoneyKernels.sumMatching(filter, days, cents, ids, 2, 3, totals));
+
+        // A filtered-out row cannot overflow the sum
+        long[] filtered = new long[2];
+        MoneyKernels.sumMatching(new MoneyKernels.Filter(FIRST_DAY, FIRST_DAY, 0, Long.MAX_VALUE / 2 - 1,
+            new int[] {1}), days, cents, ids, 0, 3, filtered);
+        assertArrayEquals(new long[] {2, 1}, filtered);
+    }
+
+    @Test
+    void emptyRangesMatchNothing() {
+        MoneyKernels.Filter days = new MoneyKernels.Filter(FIRST_DAY, FIRST_DAY - 1, 0, 100, new int[] {1});
+        MoneyKernels.Filter amounts = new MoneyKernels.Filter(FIRST_DAY, FIRST_DAY, 100, 99, new int[] {1});
+        assertFalse(days.matches(FIRST_DAY, 50, 0));
+        assertFalse(amounts.matches(FIRST_DAY, 100, 0));
+        assertTrue(new MoneyKernels.Filter(FIRST_DAY, FIRST_DAY, 100, 100, new int[] {1}).matches(FIRST_DAY, 100, 0));
+    }
+
+    private static void check(MoneyKernels.Filter filter, int startDay, int endDay, long minCents, long maxCents,
+                              int[] selected, int[] days, long[] cents, int[] ids, int from, int to) {
+        long sum = 0;
+        long count = 0;
+        long[] categoryTotals = new long[CATEGORIES];
+        int[] categoryRows = new int[CATEGORIES];
+        long[] dayTotals = new long[DAYS];
+        int[] dayRows = new int[DAYS];
+        for (int i = from; i < to; i++) {
+            boolean match = days[i] >= startDay && days[i] <= endDay && cents[i] >= minCents && cents[i] <= maxCents
+                && selected[ids[i]] == 1;
+            assertEquals(match, filter.matches(days[i], cents[i], ids[i]));
+            if (match) {
+                sum += cents[i];
+                count++;
+                categoryTotals[ids[i]] += cents[i];
+                categoryRows[ids[i]]++;
+                dayTotals[days[i] - FIRST_DAY] += cents[i];
+                dayRows[days[i] - FIRST_DAY]++;
+            }
+        }
+
+        long[] totals = new long[2];
+        MoneyKernels.sumMatching(filter, days, cents, ids, from, to, totals);
+        assertArrayEquals(new long[] {sum, count}, totals);
+
+        long[] byCategory = new long[CATEGORIES];
+        int[] byCategoryRows = new int[CATEGORIES];
+        totals = new long[2];
+        MoneyKernels.sumByCategory(filter, days, cents, ids, from, to, byCategory, byCategoryRows, totals);
+        assertArrayEquals(new long[] {sum, count}, totals);
+        assertArrayEquals(categoryTotals, byCategory);
+        assertArrayEquals(categoryRows, byCategoryRows);
+
+        long[] byDay = new long[DAYS];
+        int[] byDayRows = new int[DAYS];
+        totals = new long[2];
+        MoneyKernels.sumByDay(filter, days, cents, ids, from, to, FIRST_DAY, byDay, byDayRows, totals);
+        assertArrayEquals(new long[] {sum, count}, totals);
+        assertArrayEquals(dayTotals, byDay);
+        assertArrayEquals(dayRows, byDayRows);
+
+        if (from < to) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                min = Math.min(min, days[i]);
+                max = Math.max(max, days[i]);
+            }
+            assertArrayEquals(new int[] {min, max}, MoneyKernels.dayRange(days, from, to));
+        }
+    }
+}
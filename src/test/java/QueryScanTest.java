@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryScanTest {
+    private static final String[] CATEGORIES = {"Groceries", "Rent", "Coffee", "Travel", "Books"};
+    // Over QueryScan's SPLIT_ROWS, so scans fork, and over several chunks
+    private static final int ROWS = 3 * (1 << 16) + 1234;
+    // Over DayTotals' MAX_SPAN
+    private static final int WIDE_SPAN = 80_000;
+    private static final int FIRST_DAY = 19_000;
+
+    private static ExpenseStore store;
+    private static int[] everyThirdRow;
+
+    @BeforeAll
+    static void fillStore() {
+        Random random = new Random(4);
+        store = new ExpenseStore();
+        for (int row = 0; row < ROWS; row++) {
+            // A few years at first, so day totals start out in an array, then
+            // days over more than MAX_SPAN, so they spill to a map mid-scan
+            int day = row < ROWS / 2 ? FIRST_DAY + random.nextInt(1500) : random.nextInt(WIDE_SPAN);
+            long cents = row % 50 == 0 ? 0 : 1 + random.nextInt(row % 13 == 0 ? Integer.MAX_VALUE : 50_000);
+            store.add(day, cents, CATEGORIES[random.nextInt(CATEGORIES.length)]);
+        }
+        everyThirdRow = new int[ROWS / 3];
+        for (int i = 0; i < everyThirdRow.length; i++) {
+            everyThirdRow[i] = i * 3;
+        }
+    }
+
+    @Test
+    void matchesPlainLoopForEveryGrouping() {
+        ExpenseQuery[] queries = {
+            ExpenseQuery.all(),
+            // Within the first years only
+            ExpenseQuery.all().between("2022-01-01", "2022-06-30"),
+            ExpenseQuery.all().inCategories("Rent", "Books").amountBetween(10, 300),
+            ExpenseQuery.all().between("1980-03-15", "2150-01-01").amountBetween(0, 0),
+            ExpenseQuery.all().between("2024-01-01", "2023-01-01"),
+        };
+        for (ExpenseQuery query : queries) {
+            for (ExpenseQuery.GroupBy groupBy : ExpenseQuery.GroupBy.values()) {
+                check(query.groupBy(groupBy), null, ROWS);
+                check(query.groupBy(groupBy), null, 1000);
+                check(query.groupBy(groupBy), everyThirdRow, 0);
+            }
+        }
+    }
+
+    @Test
+    void dayTotalsMatchMapAcrossSpill() {
+        Random random = new Random(5);
+        QueryScan.DayTotals totals = new QueryScan.DayTotals();
+        Map<Integer, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            // Growing below and above the first day, then past MAX_SPAN
+            int day = i < 50_000 ? 30_000 + (i % 2 == 0 ? -1 : 1) * random.nextInt(i / 2 + 1)
+                : random.nextInt(200_000);
+            long cents = random.nextInt(1000);
+            totals.add(day, cents);
+            expected.merge(day, cents, Long::sum);
+            if (i == 49_999) {
+                assertEquals(expected, toMap(totals));
+            }
+        }
+        assertEquals(expected, toMap(totals));
+    }
+
+    private static Map<Integer, Long> toMap(QueryScan.DayTotals totals) {
+        Map<Integer, Long> map = new HashMap<>();
+        totals.forEach((day, cents) -> assertEquals(null, map.put(day, cents)));
+        return map;
+    }
+
+    private static String month(int day) {
+        return ExpenseStore.formatMonth(ExpenseStore.monthKey(day));
+    }
+
+    private static void check(ExpenseQuery query, int[] rows, int rowCount) {
+        boolean[] mask = new boolean[store.categoryCount()];
+        for (int id = 0; id < mask.length; id++) {
+            mask[id] = query.getCategories() == null || query.getCategories().contains(store.categoryName(id));
+        }
+
+        long total = 0;
+        int count = 0;
+        Map<String, Long> totals = new HashMap<>();
+        Map<String, Map<String, Long>> pivot = new HashMap<>();
+        int scanned = rows == null ? rowCount : rows.length;
+        for (int i = 0; i < scanned; i++) {
+            int row = rows == null ? i : rows[i];
+            int day = store.epochDay(row);
+            long cents = store.cents(row);
+            int id = store.categoryId(row);
+            if (day < query.getStartDay() || day > query.getEndDay() || cents < query.getMinCents()
+                    || cents > query.getMaxCents() || !mask[id]) {
+                continue;
+            }
+            total += cents;
+            count++;
+            switch (query.getGroupBy()) {
+                case CATEGORY:
+                    totals.merge(store.categoryName(id), cents, Long::sum);
+                    break;
+                case MONTH:
+                    totals.merge(month(day), cents, Long::sum);
+                    break;
+                case DAY:
+                    totals.merge(ExpenseStore.formatDate(day), cents, Long::sum);
+                    break;
+                case CATEGORY_MONTH:
+                    pivot.computeIfAbsent(store.categoryName(id), k -> new HashMap<>())
+                        .merge(month(day), cents, Long::sum);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        QueryResult result = QueryScan.run(store, query, mask, mask.length, rows, rowCount);
+        String what = query.getGroupBy() + " over " + (rows == null ? rowCount + " rows" : "listed rows");
+        assertEquals(total, result.getTotalCents(), what);
+        assertEquals(count, result.getCount(), what);
+        if (query.getGroupBy() == ExpenseQuery.GroupBy.CATEGORY_MONTH) {
+            assertEquals(pivot, result.getPivotCents(), what);
+        } else {
+            assertEquals(totals, result.getTotalsCents(), what);
+        }
+    }
+}